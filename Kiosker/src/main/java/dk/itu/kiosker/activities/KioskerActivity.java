@@ -7,36 +7,46 @@ import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 
 import com.crashlytics.android.Crashlytics;
 
-import java.util.LinkedHashMap;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.R;
 import dk.itu.kiosker.controllers.HardwareController;
 import dk.itu.kiosker.controllers.SettingsController;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.models.LocalSettings;
 import dk.itu.kiosker.models.OnlineSettings;
+import dk.itu.kiosker.models.PreferenceStore;
+import dk.itu.kiosker.utils.ConnectivityMonitor;
 import dk.itu.kiosker.utils.IntentHelper;
 import dk.itu.kiosker.utils.KioskerSubscriber;
 import dk.itu.kiosker.utils.Pinger;
+import dk.itu.kiosker.utils.RetryPolicy;
 import dk.itu.kiosker.utils.WifiController;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Func1;
 
 public class KioskerActivity extends Activity {
     public boolean currentlyInStandbyPeriod;
     public boolean currentlyScreenSaving;
     public boolean userIsInteractingWithDevice;
+    // Is the main view showing web views built from the most recently applied settings?
+    public boolean showingCurrentSettings;
     public Subscriber<Long> wakeSubscriber;
     public LinearLayout mainLayout;
+    public FrameLayout overlayLayout;
     public SettingsController settingsController;
     private StatusUpdater statusUpdater;
     private Subscriber<Long> noInternetSubscriber;
+    // Waits up to 30 seconds after the first check without internet, growing to at most 5 minutes.
+    private final RetryPolicy noInternetRetryPolicy = new RetryPolicy(30, 5 * 60, Integer.MAX_VALUE, 0);
 
     //region Startup methods.
     @Override
@@ -73,6 +83,7 @@ public class KioskerActivity extends Activity {
         Crashlytics.setUserIdentifier(Constants.getString(this, Constants.KIOSKER_DEVICE_ID));
         Pinger.start(this);
         mainLayout = (LinearLayout) findViewById(R.id.mainView);
+        overlayLayout = (FrameLayout) findViewById(R.id.overlayView);
         settingsController = settingsController == null ? new SettingsController(this) : settingsController;
         if (statusUpdater == null)
             statusUpdater = new StatusUpdater(this);
@@ -85,21 +96,27 @@ public class KioskerActivity extends Activity {
     }
 
     /**
-     * Clears the current view and downloads settings again.
-     * If there is no internet it will retry after 5 seconds.
+     * Downloads settings again.
+     * If the main view is showing the current settings it is kept until the new settings are applied,
+     * otherwise it is cleared before the download starts.
+     * If there is no internet it will retry when the internet is back, or after a growing random delay
+     * so devices do not retry in lockstep.
      */
     public void refreshDevice() {
         Log.d(Constants.TAG, "Refreshing device.");
-        cleanUpMainView();
+        if (!showingCurrentSettings)
+            cleanUpMainView();
 
         // Check if we have started a subscriber for auto retrying internet connectivity.
         if (noInternetSubscriber != null && !noInternetSubscriber.isUnsubscribed())
             noInternetSubscriber.unsubscribe();
-        settingsController.unsubscribeScheduledTasks();
 
         if (!Constants.isNetworkAvailable(this)) {
+            cleanUpMainView();
+            noInternetRetryPolicy.onFailure();
+            long retryDelayMillis = noInternetRetryPolicy.getRetryDelayMillis();
             statusUpdater.updateMainStatus("No internet");
-            statusUpdater.updateSubStatus("Retrying in 30 seconds.");
+            statusUpdater.updateSubStatus("Retrying in " + retryDelayMillis / 1000 + " seconds.");
             noInternetSubscriber = new KioskerSubscriber("Error while retrying internet connection.", this) {
                 @Override
                 public void onNext(Long aLong) {
@@ -108,7 +125,7 @@ public class KioskerActivity extends Activity {
             };
 
             if (Constants.hasSafeSettings(this))
-                Constants.settingsText = LocalSettings.getSafeJson(this).toString();
+                Constants.settingsText = LocalSettings.getSafeJsonText(this);
 
             String ssid = Constants.getString(this, Constants.KIOSKER_SSID_ID);
             boolean manualWifi = Constants.getBoolean(this, Constants.KIOSKER_MANUAL_WIFI);
@@ -116,11 +133,31 @@ public class KioskerActivity extends Activity {
                 WifiController wifiController = new WifiController(this);
                 wifiController.connectToWifi(ssid);
             }
-            Observable.timer(30, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(noInternetSubscriber);
+            // Retry when the delay has passed or as soon as the internet is back, whichever comes first.
+            Observable<Long> internetBack = ConnectivityMonitor.getInstance(this).getState()
+                    .filter(new Func1<Boolean, Boolean>() {
+                        @Override
+                        public Boolean call(Boolean available) {
+                            return available;
+                        }
+                    })
+                    .map(new Func1<Boolean, Long>() {
+                        @Override
+                        public Long call(Boolean available) {
+                            return 0L;
+                        }
+                    });
+            Observable.merge(Observable.timer(retryDelayMillis, TimeUnit.MILLISECONDS), internetBack)
+                    .first()
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(noInternetSubscriber);
             createSecretMenuButton();
         } else {
-            statusUpdater.updateMainStatus("Downloading settings");
-            statusUpdater.updateSubStatus("Starting download.");
+            noInternetRetryPolicy.onSuccess();
+            if (!showingCurrentSettings) {
+                statusUpdater.updateMainStatus("Downloading settings");
+                statusUpdater.updateSubStatus("Starting download.");
+            }
             OnlineSettings.getSettings(this);
         }
     }
@@ -129,6 +166,7 @@ public class KioskerActivity extends Activity {
      * Removes all views added to the main layout and resets all web controllers.
      */
     public void cleanUpMainView() {
+        showingCurrentSettings = false;
         if (mainLayout != null)
             mainLayout.removeAllViews();
         if (settingsController != null) {
@@ -167,6 +205,14 @@ public class KioskerActivity extends Activity {
                 Constants.setString(this, "", Constants.KIOSKER_LATEST_EXCEPTION_ID);
                 cleanUpMainView();
                 InitialSetup.start(this);
+                return;
+            }
+
+            int rollbackVersion = data.getIntExtra(Constants.KIOSKER_ROLLBACK_VERSION_ID, -1);
+            if (rollbackVersion >= 0 && LocalSettings.rollback(this, rollbackVersion)) {
+                Log.d(Constants.TAG, "Rolling back to safe settings version " + rollbackVersion + ".");
+                cleanUpMainView();
+                loadSafeSettings();
             }
         }
     }
@@ -178,6 +224,8 @@ public class KioskerActivity extends Activity {
     public void onPause() {
         super.onPause();
         settingsController.handleOnPause();
+        // The app may be killed from here on, so preferences waiting to be written are written now.
+        PreferenceStore.getInstance(this).flush();
         Log.d(Constants.TAG, "onPause() called");
     }
 
@@ -214,6 +262,25 @@ public class KioskerActivity extends Activity {
     public void onDestroy() {
         super.onDestroy();
         Log.d(Constants.TAG, "onDestroy() called");
+        if (settingsController != null)
+            settingsController.trimWebViewPool();
+    }
+
+    /**
+     * The memory governor frees memory in steps as the level rises.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (settingsController != null)
+            settingsController.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (settingsController != null)
+            settingsController.onLowMemory();
     }
     //endregion
 
@@ -256,20 +323,36 @@ public class KioskerActivity extends Activity {
         settingsController.startScheduledTasks();
     }
 
-    public void handleSettings(LinkedHashMap currentSettings, boolean baseSettings) {
+    public void refreshIfPending() {
+        settingsController.refreshIfPending();
+    }
+
+    public void handleSettings(KioskSettings currentSettings, boolean baseSettings) {
         if (currentSettings.isEmpty()) {
             updateMainStatus("No JSON Found");
             updateSubStatus("Please check your settings");
             createSecretMenuButton();
-        } else settingsController.handleSettings(currentSettings, baseSettings);
+        } else {
+            settingsController.handleSettings(currentSettings, baseSettings);
+            showingCurrentSettings = true;
+        }
     }
 
+    /**
+     * Load and handle safe settings from local storage.
+     * These settings are stored every time the app
+     * successfully downloads and parses the online settings.
+     */
     public void loadSafeSettings() {
-        settingsController.loadSafeSettings();
+        Log.d(Constants.TAG, "Loading safe settings.");
+        handleSettings(LocalSettings.getSafeJson(this), true);
     }
 
-    public void addView(View view, float weight) {
-        mainLayout.addView(view, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT, weight));
+    /**
+     * Adds a view filling the main layout, without a weight it is measured only once.
+     */
+    public void addView(View view) {
+        mainLayout.addView(view, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
     }
 
     private void handleNavigationUI() {
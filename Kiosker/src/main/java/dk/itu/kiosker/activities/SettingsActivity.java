@@ -21,11 +21,17 @@ import android.widget.Toast;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Formatter;
+import java.util.List;
 
 import dk.itu.kiosker.R;
 import dk.itu.kiosker.controllers.HardwareController;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.LocalSettings;
+import dk.itu.kiosker.models.PreferenceStore;
+import dk.itu.kiosker.models.SettingsStore;
 import dk.itu.kiosker.utils.ClearWifiFiles;
 import dk.itu.kiosker.utils.WifiController;
 
@@ -38,6 +44,7 @@ public class SettingsActivity extends Activity {
     private Boolean resetDevice = false;
     private Boolean allowHome = false;
     private Boolean wrongOrNoPasswordEntered = false;
+    private int rollbackVersion = -1;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -80,6 +87,20 @@ public class SettingsActivity extends Activity {
             showSettingsButton.setText("No Settings Loaded");
         }
 
+        final List<SettingsStore.Version> versions = LocalSettings.getSafeVersions(this);
+        Button rollbackSettingsButton = (Button) findViewById(R.id.rollbackSettingsButton);
+        rollbackSettingsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showRollbackDialog(versions);
+            }
+        });
+        // The newest version is the one in use, so there is only something to roll back to with two or more.
+        if (versions.size() < 2) {
+            rollbackSettingsButton.setEnabled(false);
+            rollbackSettingsButton.setText("No Settings To Roll Back To");
+        }
+
         Button close = (Button) findViewById(R.id.closeButton);
         close.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -162,6 +183,32 @@ public class SettingsActivity extends Activity {
         allowTouches(findViewById(R.id.settingsMainLayout));
     }
 
+    private void showRollbackDialog(final List<SettingsStore.Version> versions) {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String[] items = new String[versions.size()];
+        for (int i = 0; i < versions.size(); i++) {
+            SettingsStore.Version version = versions.get(i);
+            items[i] = "Version " + version.version + " from " + formatter.format(new Date(version.savedAt)) + (i == 0 ? " (current)" : "");
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Roll back to")
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which > 0) {
+                            rollbackVersion = versions.get(which).version;
+                            finish();
+                        }
+                    }
+                })
+                .setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+
+                    }
+                }).show();
+    }
+
     private void keepScreenOn() {
         WindowManager.LayoutParams params = getWindow().getAttributes();
         params.flags |= WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON;
@@ -228,6 +275,9 @@ public class SettingsActivity extends Activity {
         // Should the device be reset?
         data.putExtra(Constants.KIOSKER_RESET_DEVICE_ID, resetDevice);
 
+        // Should the device roll back to older safe settings?
+        data.putExtra(Constants.KIOSKER_ROLLBACK_VERSION_ID, rollbackVersion);
+
         // Should the user be able to use the navigation UI?
         data.putExtra(Constants.KIOSKER_ALLOW_HOME_ID, allowHome);
 
@@ -332,6 +382,7 @@ public class SettingsActivity extends Activity {
     @Override
     public void onStop() {
         super.onStop();
+        PreferenceStore.getInstance(this).flush();
     }
 
     private static String encryptPassword(String password) {
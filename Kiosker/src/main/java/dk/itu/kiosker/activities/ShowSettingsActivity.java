@@ -2,12 +2,24 @@ package dk.itu.kiosker.activities;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
 import android.view.WindowManager;
+import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import dk.itu.kiosker.R;
 import dk.itu.kiosker.controllers.HardwareController;
+import dk.itu.kiosker.controllers.MemoryGovernor;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.OnlineSettings;
+import dk.itu.kiosker.web.PageLoadTelemetry;
+import dk.itu.kiosker.web.RequestFilter;
 
 public class ShowSettingsActivity extends Activity {
     private TextView tv;
@@ -17,6 +29,40 @@ public class ShowSettingsActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_show_settings);
         keepScreenOn();
+
+        Button exportPageLoadsButton = (Button) findViewById(R.id.exportPageLoadsButton);
+        exportPageLoadsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                exportPageLoads();
+            }
+        });
+    }
+
+    /**
+     * Writes the recorded page loads as json to the files of the app on the external storage, where they can be collected.
+     */
+    private void exportPageLoads() {
+        // There is no external files directory while the storage is not mounted.
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            Toast.makeText(this, "Could not export the page loads, the storage is not available.", Toast.LENGTH_LONG).show();
+            return;
+        }
+        try {
+            String json = PageLoadTelemetry.getInstance().toJson(Constants.getString(this, Constants.KIOSKER_DEVICE_ID));
+            File file = new File(directory, "page_loads.json");
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(json.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            Toast.makeText(this, "Page loads exported to " + file, Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Error while exporting the page loads.", e);
+            Toast.makeText(this, "Could not export the page loads.", Toast.LENGTH_LONG).show();
+        }
     }
 
     protected void keepScreenOn() {
@@ -34,7 +80,17 @@ public class ShowSettingsActivity extends Activity {
 
     private void getSettings() {
         tv = (TextView) findViewById(R.id.showSettingsTextView);
-        tv.setText(Constants.settingsText);
+        String status = OnlineSettings.getRetryStatus();
+        String filterStatus = RequestFilter.getInstance(this).getStatus();
+        if (!filterStatus.isEmpty())
+            status += "\n" + filterStatus;
+        String memoryStatus = MemoryGovernor.getStatus();
+        if (!memoryStatus.isEmpty())
+            status += "\n" + memoryStatus;
+        String pageLoadStatus = PageLoadTelemetry.getInstance().getStatus();
+        if (!pageLoadStatus.isEmpty())
+            status += "\n\n" + pageLoadStatus;
+        tv.setText(status + "\n\n" + Constants.settingsText);
     }
 
     @Override
@@ -3,16 +3,16 @@ package dk.itu.kiosker.controllers;
 import android.app.ActivityManager;
 import android.content.Context;
 
-import java.util.LinkedHashMap;
 import java.util.List;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.activities.SettingsActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
-import dk.itu.kiosker.utils.SettingsExtractor;
 
 public class HardwareController {
+    static final String[] SETTINGS_KEYS = {"allowHome"};
     private static KioskerActivity kioskerActivity;
     private static Boolean hardwareSettingsParsed = false;
 
@@ -68,8 +68,8 @@ public class HardwareController {
             hideNavigationUI();
     }
 
-    public void handleHardwareSettings(LinkedHashMap settings) {
-        Constants.setBoolean(kioskerActivity, SettingsExtractor.getBoolean(settings, "allowHome"), Constants.KIOSKER_ALLOW_HOME_ID);
+    public void handleHardwareSettings(KioskSettings settings) {
+        Constants.setBoolean(kioskerActivity, settings.allowHome, Constants.KIOSKER_ALLOW_HOME_ID);
         hardwareSettingsParsed = true;
     }
 
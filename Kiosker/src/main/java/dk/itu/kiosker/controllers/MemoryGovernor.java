@@ -0,0 +1,109 @@
+package dk.itu.kiosker.controllers;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import dk.itu.kiosker.models.Constants;
+
+/**
+ * Frees memory in steps as the system reports it running low, giving up the cheapest things first.
+ * Moderate pressure trims the caches of the web views, low pressure destroys the web views that are hidden
+ * or kept for reuse, critical pressure pauses the web views that are not on screen,
+ * and when the app is about to be killed every pane but the home pane is removed.
+ * Each step also takes the steps before it. Every action is logged and counted for the settings screen.
+ */
+public class MemoryGovernor {
+    enum Action {
+        TRIM_CACHES("Trimmed web view caches"),
+        DESTROY_HIDDEN("Destroyed hidden web views"),
+        PAUSE_HIDDEN("Paused hidden web views"),
+        HOME_PANE_ONLY("Reduced to the home pane");
+
+        final String description;
+
+        Action(String description) {
+            this.description = description;
+        }
+    }
+
+    // Counted for the lifetime of the app, so they survive the settings controller being rebuilt.
+    private static final Map<Action, Integer> counts = new EnumMap<>(Action.class);
+    private final WebController webController;
+
+    MemoryGovernor(WebController webController) {
+        this.webController = webController;
+    }
+
+    /**
+     * @param level the level passed to ComponentCallbacks2.onTrimMemory.
+     */
+    void onTrimMemory(int level) {
+        // The drastic actions go first, so the cheaper ones also cover what they release.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+            perform(Action.HOME_PANE_ONLY, level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            perform(Action.PAUSE_HIDDEN, level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            perform(Action.DESTROY_HIDDEN, level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+            perform(Action.TRIM_CACHES, level);
+    }
+
+    /**
+     * Called on devices that do not report trim levels, or when the whole system is out of memory.
+     */
+    void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * @return true if panes were removed to save memory since the web views were last built.
+     */
+    boolean isDegraded() {
+        return webController.isReducedToHomePane();
+    }
+
+    private void perform(Action action, int level) {
+        int affected;
+        switch (action) {
+            case HOME_PANE_ONLY:
+                affected = webController.reduceToHomePane();
+                break;
+            case PAUSE_HIDDEN:
+                affected = webController.pauseHiddenWebViews();
+                break;
+            case DESTROY_HIDDEN:
+                affected = webController.destroyHiddenWebViews();
+                break;
+            default:
+                affected = webController.trimWebViewCaches();
+                break;
+        }
+        String message = String.format("%s at memory level %d, %d web views affected.", action.description, level, affected);
+        Log.d(Constants.TAG, message);
+        Crashlytics.log(message);
+        if (affected == 0)
+            return;
+        synchronized (counts) {
+            Integer count = counts.get(action);
+            counts.put(action, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * @return how often each action was taken, or an empty string if memory never ran low.
+     */
+    public static String getStatus() {
+        StringBuilder status = new StringBuilder();
+        synchronized (counts) {
+            for (Map.Entry<Action, Integer> count : counts.entrySet())
+                status.append(status.length() == 0 ? "Memory: " : ", ").append(count.getKey().description).append(' ').append(count.getValue()).append(count.getValue() == 1 ? " time" : " times");
+        }
+        return status.toString();
+    }
+}
@@ -36,6 +36,35 @@ public class RefreshController {
         return shortRefreshSubscriber;
     }
 
+    /**
+     * Refreshes the device now, or once the user stops interacting with it or the screen saver ends.
+     * Nothing is done while the device is in standby.
+     *
+     * @return true if the device was refreshed or will be, false if the refresh was skipped.
+     */
+    public boolean refreshWhenIdle() {
+        if (kioskerActivity.currentlyInStandbyPeriod)
+            return false;
+        if (kioskerActivity.userIsInteractingWithDevice || kioskerActivity.currentlyScreenSaving)
+            deviceShouldBeReset = true;
+        else {
+            stopShortRefreshSubscription();
+            kioskerActivity.refreshDevice();
+        }
+        return true;
+    }
+
+    /**
+     * Refreshes the device if a refresh was put off and nothing holds it back any longer.
+     */
+    public void refreshIfPending() {
+        if (!deviceShouldBeReset || kioskerActivity.currentlyInStandbyPeriod || kioskerActivity.currentlyScreenSaving || kioskerActivity.userIsInteractingWithDevice)
+            return;
+        deviceShouldBeReset = false;
+        stopShortRefreshSubscription();
+        kioskerActivity.refreshDevice();
+    }
+
     public void stopShortRefreshSubscription() {
         if (shortRefreshSubscriber != null && !shortRefreshSubscriber.isUnsubscribed())
             shortRefreshSubscriber.unsubscribe();
@@ -3,28 +3,33 @@ package dk.itu.kiosker.controllers;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
-import dk.itu.kiosker.utils.SettingsExtractor;
+import dk.itu.kiosker.utils.KioskerSubscriber;
 import dk.itu.kiosker.web.WebPage;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.functions.Action1;
 
 public class ScreenSaverController {
+    static final String[] SETTINGS_KEYS = {"screenSavePeriodMins", "screenSaveLengthMins", "screensavers", "screensaverCacheMins"};
+    // How long before the screen saver starts its page starts loading.
+    private static final long PRELOAD_SECONDS = 30;
     private final KioskerActivity kioskerActivity;
     private final ArrayList<Subscriber> subscribers;
     private final WebController webController;
     private int screenSaveLengthMins;
-    private ArrayList<WebPage> screenSaverWebPages;
+    private List<WebPage> screenSaverWebPages;
+    private int screenSaverCacheMins;
     private Observable<Long> screenSaverObservable;
     private Subscriber<Long> screenSaverSubscriber;
+    private Subscriber<Long> screenSaverEndSubscriber;
 
     public ScreenSaverController(KioskerActivity kioskerActivity, ArrayList<Subscriber> subscribers, WebController webController) {
         this.kioskerActivity = kioskerActivity;
@@ -32,13 +37,20 @@ public class ScreenSaverController {
         this.webController = webController;
     }
 
-    protected void handleScreenSaving(LinkedHashMap settings) {
-        int screenSavePeriodMins = SettingsExtractor.getInteger(settings, "screenSavePeriodMins");
+    protected void handleScreenSaving(KioskSettings settings) {
+        int screenSavePeriodMins = settings.screenSavePeriodMins;
         if (screenSavePeriodMins > 0) {
-            screenSaveLengthMins = SettingsExtractor.getInteger(settings, "screenSaveLengthMins");
-            screenSaverWebPages = SettingsExtractor.getWebPages(settings, "screensavers");
+            screenSaveLengthMins = settings.screenSaveLengthMins;
+            screenSaverWebPages = settings.screensavers;
+            screenSaverCacheMins = settings.screensaverCacheMins;
             if (screenSaveLengthMins > 0) {
-                screenSaverObservable = Observable.timer(screenSavePeriodMins, TimeUnit.MINUTES).observeOn(AndroidSchedulers.mainThread());
+                // The first tick preloads the screen saver page, the second shows it.
+                long periodSeconds = TimeUnit.MINUTES.toSeconds(screenSavePeriodMins);
+                long preloadDelaySeconds = Math.max(periodSeconds - PRELOAD_SECONDS, 0);
+                screenSaverObservable = Observable.concat(
+                        Observable.timer(preloadDelaySeconds, TimeUnit.SECONDS),
+                        Observable.timer(periodSeconds - preloadDelaySeconds, TimeUnit.SECONDS))
+                        .observeOn(AndroidSchedulers.mainThread());
                 startScreenSaverSubscription();
             }
         }
@@ -51,38 +63,59 @@ public class ScreenSaverController {
     }
 
     public void stopScreenSaverSubscription() {
+        cancelScreenSaverSubscription();
+        if (kioskerActivity.currentlyScreenSaving)
+            endScreenSaver();
+    }
+
+    /**
+     * Hides the screen saver, the panes underneath are shown as they were
+     * unless the settings changed while screen saving, then the device is refreshed.
+     * Ended by a touch the refresh waits until the user stops interacting with the device.
+     */
+    private void endScreenSaver() {
+        if (screenSaverEndSubscriber != null)
+            screenSaverEndSubscriber.unsubscribe();
+        kioskerActivity.currentlyScreenSaving = false;
+        webController.hideScreenSaver();
+        kioskerActivity.refreshIfPending();
+    }
+
+    /**
+     * Cancel the pending screen saver without ending a running one.
+     */
+    void cancelScreenSaverSubscription() {
         if (screenSaverSubscriber != null) {
             screenSaverSubscriber.unsubscribe();
             subscribers.remove(screenSaverSubscriber);
         }
-        if (kioskerActivity.currentlyScreenSaving) {
-            kioskerActivity.currentlyScreenSaving = false;
-            kioskerActivity.refreshDevice();
-        }
     }
 
     Subscriber<Long> getScreenSaverSubscriber() {
         if (screenSaverSubscriber != null && !screenSaverSubscriber.isUnsubscribed())
             screenSaverSubscriber.unsubscribe();
         screenSaverSubscriber = new Subscriber<Long>() {
+            private boolean preloaded;
+
             @Override
             public void onCompleted() {
                 subscribers.remove(screenSaverSubscriber);
+                screenSaverEndSubscriber = new KioskerSubscriber("Error while stopping screen saver.", kioskerActivity) {
+                    @Override
+                    public void onNext(Long aLong) {
+                        Log.d(Constants.TAG, "Stopping screensaver.");
+                        // Here we are finished screen saving and we return to the normal layout.
+                        endScreenSaver();
+
+                        // Return to the previous brightness level
+                        StandbyController.dimDevice(kioskerActivity);
+
+                        kioskerActivity.startScheduledTasks();
+                    }
+                };
                 Observable.timer(screenSaveLengthMins, TimeUnit.MINUTES)
                         .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(new Action1<Long>() {
-                            @Override
-                            public void call(Long aLong) {
-                                Log.d(Constants.TAG, "Stopping screensaver.");
-                                // Here we are finished screen saving and we return to the normal layout.
-                                kioskerActivity.currentlyScreenSaving = false;
-
-                                // Return to the previous brightness level
-                                StandbyController.dimDevice(kioskerActivity);
-
-                                kioskerActivity.refreshDevice();
-                            }
-                        });
+                        .subscribe(screenSaverEndSubscriber);
             }
 
             @Override
@@ -92,25 +125,22 @@ public class ScreenSaverController {
 
             @Override
             public void onNext(Long l) {
-                if (!screenSaverWebPages.isEmpty() && !kioskerActivity.currentlyInStandbyPeriod) {
+                if (screenSaverWebPages.isEmpty() || kioskerActivity.currentlyInStandbyPeriod) {
+                    unsubscribe();
+                    subscribers.remove(this);
+                } else if (!preloaded) {
+                    preloaded = true;
+                    WebPage webPage = screenSaverWebPages.get(new Random().nextInt(screenSaverWebPages.size()));
+                    webController.preloadScreenSaver(webPage, screenSaverCacheMins);
+                    Log.d(Constants.TAG, String.format("Preloading screensaver %s.", webPage.title));
+                } else {
                     kioskerActivity.currentlyScreenSaving = true;
-
-                    Random rnd = new Random();
-                    int randomIndex = rnd.nextInt(screenSaverWebPages.size());
-
-                    // Clean current view .
-                    kioskerActivity.cleanUpMainView();
-
-                    // Make a new full screen web view with a random url from the screen saver urls.
-                    webController.setupWebView(false, screenSaverWebPages.get(randomIndex), 1.0f, false, false);
+                    webController.showScreenSaver();
 
                     // Run the screen saver at max brightness
                     StandbyController.unDimDevice(kioskerActivity);
 
-                    Log.d(Constants.TAG, String.format("Starting screensaver %s.", screenSaverWebPages.get(randomIndex).title));
-                } else {
-                    unsubscribe();
-                    subscribers.remove(this);
+                    Log.d(Constants.TAG, "Starting screensaver.");
                 }
             }
         };
@@ -4,19 +4,23 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.models.LocalSettings;
+import dk.itu.kiosker.models.OnlineSettings;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
-import dk.itu.kiosker.utils.SettingsExtractor;
+import dk.itu.kiosker.utils.SettingsChangeListener;
+import dk.itu.kiosker.utils.SettingsDiff;
 import dk.itu.kiosker.utils.WifiController;
+import dk.itu.kiosker.web.RequestFilter;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Func0;
 
 public class SettingsController {
     // We wait 5 seconds before starting scheduled tasks after a touch event.
@@ -24,44 +28,84 @@ public class SettingsController {
     private final KioskerActivity kioskerActivity;
     private final SoundController soundController;
     private final WebController webController;
+    private final MemoryGovernor memoryGovernor;
     private final StandbyController standbyController;
     private final HardwareController hardwareController;
     private final WifiController wifiController;
+    private final SettingsChangeListener settingsChangeListener;
 
     private final RefreshController refreshController;
     // List of the scheduled settings
     private final ArrayList<Subscriber> subscribers;
     private Subscriber<Long> delayedScheduledTasksSubscription;
+    // The settings that were applied last, used to find out what changed in new settings.
+    private KioskSettings appliedSettings;
 
     public SettingsController(KioskerActivity kioskerActivity) {
         this.kioskerActivity = kioskerActivity;
         subscribers = new ArrayList<>();
         soundController = new SoundController(kioskerActivity, subscribers, kioskerActivity);
         webController = new WebController(kioskerActivity, subscribers);
+        memoryGovernor = new MemoryGovernor(webController);
         standbyController = new StandbyController(kioskerActivity, subscribers);
         hardwareController = new HardwareController(kioskerActivity);
         refreshController = new RefreshController(kioskerActivity);
         wifiController = new WifiController(kioskerActivity);
+        settingsChangeListener = new SettingsChangeListener(kioskerActivity, subscribers, new Func0<Boolean>() {
+            @Override
+            public Boolean call() {
+                return refreshController.refreshWhenIdle();
+            }
+        });
     }
 
-    public void handleSettings(LinkedHashMap settings, boolean baseSettings) {
-        Constants.setString(kioskerActivity, SettingsExtractor.getString(settings, "passwordHash"), Constants.KIOSKER_PASSWORD_HASH_ID);
-        Constants.setString(kioskerActivity, SettingsExtractor.getString(settings, "masterPasswordHash"), Constants.KIOSKER_MASTER_PASSWORD_HASH_ID);
-        Constants.setString(kioskerActivity, SettingsExtractor.getString(settings, "passwordSalt"), Constants.KIOSKER_PASSWORD_SALT_ID);
-        Constants.setString(kioskerActivity, SettingsExtractor.getString(settings, "masterPasswordSalt"), Constants.KIOSKER_MASTER_PASSWORD_SALT_ID);
-
-        soundController.handleSoundSettings(settings);
-        webController.handleWebSettings(settings);
-        standbyController.handleStandbySettings(settings);
-        hardwareController.handleHardwareSettings(settings);
-        wifiController.handleWifiSettings(settings);
+    /**
+     * Applies the settings.
+     * While the web views of the last applied settings are on screen only the controllers
+     * whose settings changed are reconfigured, otherwise every controller is.
+     */
+    public void handleSettings(KioskSettings settings, boolean baseSettings) {
+        SettingsDiff diff = new SettingsDiff(kioskerActivity.showingCurrentSettings && appliedSettings != null ? appliedSettings.getValues() : null, settings.getValues());
+        appliedSettings = settings;
+
+        Constants.setString(kioskerActivity, settings.passwordHash, Constants.KIOSKER_PASSWORD_HASH_ID);
+        Constants.setString(kioskerActivity, settings.masterPasswordHash, Constants.KIOSKER_MASTER_PASSWORD_HASH_ID);
+        Constants.setString(kioskerActivity, settings.passwordSalt, Constants.KIOSKER_PASSWORD_SALT_ID);
+        Constants.setString(kioskerActivity, settings.masterPasswordSalt, Constants.KIOSKER_MASTER_PASSWORD_SALT_ID);
+
+        // The filter rules are loaded first so the web views are filtered from their first page.
+        // They are checked for changes on the server every time, as the rules file may change at the same url.
+        RequestFilter.getInstance(kioskerActivity).handleFilterSettings(settings);
+        // Panes removed to save memory come back with the next settings, even if those have not changed.
+        if (diff.changed(WebController.VIEW_SETTINGS_KEYS) || memoryGovernor.isDegraded()) {
+            // Rebuilding the web views cancels every scheduled task, so every controller has to be reconfigured.
+            diff = new SettingsDiff(null, settings.getValues());
+            webController.handleWebSettings(settings);
+        } else {
+            if (diff.changed(WebController.SCHEDULE_SETTINGS_KEYS))
+                webController.handleWebSchedules(settings);
+            if (diff.changed(ScreenSaverController.SETTINGS_KEYS))
+                webController.handleScreenSaverSettings(settings);
+        }
+        if (diff.changed(SoundController.SETTINGS_KEYS))
+            soundController.handleSoundSettings(settings);
+        if (diff.changed(StandbyController.SETTINGS_KEYS))
+            standbyController.handleStandbySettings(settings);
+        if (diff.changed(HardwareController.SETTINGS_KEYS))
+            hardwareController.handleHardwareSettings(settings);
+        if (diff.changed(WifiController.SETTINGS_KEYS))
+            wifiController.handleWifiSettings(settings);
+        if (diff.changed(SettingsChangeListener.SETTINGS_KEYS))
+            settingsChangeListener.handleSettingsChangeSettings(settings);
+        if (diff.changed(OnlineSettings.RETRY_SETTINGS_KEYS))
+            OnlineSettings.handleRetrySettings(settings);
 
         // Save these settings as the safe defaults.
         if (!settings.isEmpty())
-            LocalSettings.setSafeJson(kioskerActivity, settings);
+            LocalSettings.setSafeJson(kioskerActivity, settings.getValues());
 
         // Show our settings in the settings activity.
-        Constants.settingsText = settingsToString(settings);
+        Constants.settingsText = settingsToString(settings.getValues());
 
         // If the settings are empty we have failed to get any settings.
         if (settings.isEmpty() && baseSettings) {
@@ -72,10 +116,12 @@ public class SettingsController {
             kioskerActivity.removeStatusTextViews();
 
         // When all the settings have been parsed check to see if we should hide the ui.
-        HardwareController.handleNavigationUI();
+        if (diff.changed(HardwareController.SETTINGS_KEYS))
+            HardwareController.handleNavigationUI();
 
         // Set the user provided brightness
-        StandbyController.unDimDevice(kioskerActivity);
+        if (diff.changed(StandbyController.SETTINGS_KEYS))
+            StandbyController.unDimDevice(kioskerActivity);
     }
 
     /**
@@ -88,21 +134,10 @@ public class SettingsController {
         while (it.hasNext()) {
             Map.Entry pairs = (Map.Entry)it.next();
             result += pairs.getKey() + " = " + pairs.getValue() + "\n";
-            it.remove();
         }
         return result;
     }
 
-    /**
-     * Load and handle safe settings from local storage.
-     * These settings are stored every time the app
-     * successfully downloads and parses the online settings.
-     */
-    public void loadSafeSettings() {
-        Log.d(Constants.TAG, "Loading safe settings.");
-        handleSettings(LocalSettings.getSafeJson(kioskerActivity), true);
-    }
-
     private Subscriber<Long> getDelayedScheduledTasksSubscription() {
         delayedScheduledTasksSubscription = new Subscriber<Long>() {
             @Override
@@ -140,6 +175,10 @@ public class SettingsController {
         }
     }
 
+    public void refreshIfPending() {
+        refreshController.refreshIfPending();
+    }
+
     public void stopScheduledTasks() {
         webController.stopScreenSaverSubscription();
         webController.stopCycleSecondarySubscription();
@@ -161,6 +200,25 @@ public class SettingsController {
         webController.clearWebViews();
     }
 
+    public void trimWebViewPool() {
+        webController.trimWebViewPool();
+    }
+
+    public void onTrimMemory(int level) {
+        memoryGovernor.onTrimMemory(level);
+    }
+
+    public void onLowMemory() {
+        memoryGovernor.onLowMemory();
+    }
+
+    /**
+     * @return true if panes were removed to save memory, so the settings have to be applied again to bring them back.
+     */
+    public boolean isDegraded() {
+        return memoryGovernor.isDegraded();
+    }
+
     public void handleNavigationUI() {
         hardwareController.handleNavigationUI();
     }
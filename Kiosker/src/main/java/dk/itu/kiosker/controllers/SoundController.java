@@ -6,19 +6,19 @@ import android.media.AudioManager;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.utils.KioskerSubscriber;
-import dk.itu.kiosker.utils.SettingsExtractor;
 import dk.itu.kiosker.utils.Time;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 
 class SoundController {
+    static final String[] SETTINGS_KEYS = {"mute", "volume", "quietHoursStartTime", "quietHoursStopTime"};
     private final Context context;
     private final ArrayList<Subscriber> subscribers;
     private Subscriber<Long> quietHoursStartTimeSubscriber;
@@ -31,28 +31,22 @@ class SoundController {
         this.kioskerActivity = kioskerActivity;
     }
 
-    void handleSoundSettings(LinkedHashMap settings) {
-        boolean mute = SettingsExtractor.getBoolean(settings, "mute");
-        if (mute) {
+    void handleSoundSettings(KioskSettings settings) {
+        stopQuietHoursSubscriptions();
+        if (settings.mute) {
             setVolume(0);
             return;
         }
-        int volume = SettingsExtractor.getInteger(settings, "volume");
-        final int standardVolume = volume > 0 ? volume : 50;
+        final int standardVolume = settings.volume;
         setVolume(standardVolume);
-        String quietHoursStartTime = SettingsExtractor.getString(settings, "quietHoursStartTime");
-        String quietHoursStopTime = SettingsExtractor.getString(settings, "quietHoursStopTime");
+        String quietHoursStartTime = settings.quietHoursStartTime;
+        String quietHoursStopTime = settings.quietHoursStopTime;
         if (!quietHoursStartTime.isEmpty() && !quietHoursStopTime.isEmpty()) {
             Time startTime = new Time(quietHoursStartTime);
 
             // Creating a simple observable we can define a task on.
             Observable<Long> startObservable = Observable.from(1L);
 
-            if (quietHoursStartTimeSubscriber != null) {
-                quietHoursStartTimeSubscriber.unsubscribe();
-                subscribers.remove(quietHoursStartTimeSubscriber);
-            }
-
             // Create a subscriber that will set the volume to 0.
             quietHoursStartTimeSubscriber = new KioskerSubscriber("Error while setting volume.", kioskerActivity) {
                 @Override
@@ -74,10 +68,6 @@ class SoundController {
             // Repeat the above tasks for the stop time.
             Time stopTime = new Time(quietHoursStopTime);
             Observable<Long> stopObservable = Observable.from(1L);
-            if (quietHoursStopTimeSubscriber != null) {
-                quietHoursStopTimeSubscriber.unsubscribe();
-                subscribers.remove(quietHoursStopTimeSubscriber);
-            }
             quietHoursStopTimeSubscriber = new KioskerSubscriber("Error while setting volume.", kioskerActivity) {
                 @Override
                 public void onNext(Long aLong) {
@@ -98,6 +88,17 @@ class SoundController {
         }
     }
 
+    private void stopQuietHoursSubscriptions() {
+        if (quietHoursStartTimeSubscriber != null) {
+            quietHoursStartTimeSubscriber.unsubscribe();
+            subscribers.remove(quietHoursStartTimeSubscriber);
+        }
+        if (quietHoursStopTimeSubscriber != null) {
+            quietHoursStopTimeSubscriber.unsubscribe();
+            subscribers.remove(quietHoursStopTimeSubscriber);
+        }
+    }
+
     private void setVolume(int volume) {
         AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         am.setStreamVolume(
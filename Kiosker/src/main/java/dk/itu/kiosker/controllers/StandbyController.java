@@ -7,20 +7,20 @@ import android.util.Log;
 import android.view.WindowManager;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
 import dk.itu.kiosker.utils.KioskerSubscriber;
-import dk.itu.kiosker.utils.SettingsExtractor;
 import dk.itu.kiosker.utils.Time;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 
 class StandbyController {
+    static final String[] SETTINGS_KEYS = {"brightness", "dimmedBrightness", "idlePeriodMins", "standbyStartTime", "standbyStopTime"};
     private final KioskerActivity kioskerActivity;
     private final ArrayList<Subscriber> subscribers;
     private Subscriber<Long> idleDimSubscriber;
@@ -50,34 +50,27 @@ class StandbyController {
         }
     }
 
-    public void handleStandbySettings(LinkedHashMap settings) {
-        int tempBrightness = SettingsExtractor.getInteger(settings, "brightness");
-        float brightness = tempBrightness <= 0 ? 1.0f : (float) (tempBrightness / 100.0);
-        Constants.setFloat(kioskerActivity, brightness, Constants.KIOSKER_BRIGHTNESS_ID);
+    public void handleStandbySettings(KioskSettings settings) {
+        Constants.setFloat(kioskerActivity, settings.brightness, Constants.KIOSKER_BRIGHTNESS_ID);
+        Constants.setFloat(kioskerActivity, settings.dimmedBrightness, Constants.KIOSKER_DIMMED_BRIGHTNESS_ID);
 
-        tempBrightness = SettingsExtractor.getInteger(settings, "dimmedBrightness");
-        float dimmedBrightness = tempBrightness <= 0 ? 0.7f : (float) (tempBrightness / 100.0);
-        Constants.setFloat(kioskerActivity, dimmedBrightness, Constants.KIOSKER_DIMMED_BRIGHTNESS_ID);
+        stopStandbySubscriptions();
 
-        int idlePeriodMins = SettingsExtractor.getInteger(settings, "idlePeriodMins");
+        int idlePeriodMins = settings.idlePeriodMins;
+        idleDimObservable = null;
         if (idlePeriodMins > 0) {
             idleDimObservable = Observable.timer(idlePeriodMins, TimeUnit.MINUTES).observeOn(AndroidSchedulers.mainThread());
             idleDimObservable.subscribe(getIdleDimSubscriber());
         }
 
-        String standbyStartTimeStr = SettingsExtractor.getString(settings, "standbyStartTime");
-        String standbyStopTimeStr = SettingsExtractor.getString(settings, "standbyStopTime");
+        String standbyStartTimeStr = settings.standbyStartTime;
+        String standbyStopTimeStr = settings.standbyStopTime;
         if (!standbyStartTimeStr.isEmpty() && !standbyStopTimeStr.isEmpty()) {
             Time standbyStartTime = new Time(standbyStartTimeStr);
 
             // Creating a simple idleDimObservable we can define a task on.
             Observable<Long> startObservable = Observable.from(1L);
 
-            if (standbyStartTimeSubscriber != null) {
-                standbyStartTimeSubscriber.unsubscribe();
-                subscribers.remove(standbyStartTimeSubscriber);
-            }
-
             // Create a subscriber that will set start the standby period
             standbyStartTimeSubscriber = getStandbySubscriber(true);
 
@@ -94,11 +87,6 @@ class StandbyController {
             // Creating a simple idleDimObservable we can define a task on.
             Observable<Long> stopObservable = Observable.from(1L);
 
-            if (standbyStopTimeSubscriber != null) {
-                standbyStopTimeSubscriber.unsubscribe();
-                subscribers.remove(standbyStopTimeSubscriber);
-            }
-
             // Create a subscriber that will end the standby period
             standbyStopTimeSubscriber = getStandbySubscriber(false);
 
@@ -118,6 +106,21 @@ class StandbyController {
         }
     }
 
+    private void stopStandbySubscriptions() {
+        if (idleDimSubscriber != null) {
+            idleDimSubscriber.unsubscribe();
+            subscribers.remove(idleDimSubscriber);
+        }
+        if (standbyStartTimeSubscriber != null) {
+            standbyStartTimeSubscriber.unsubscribe();
+            subscribers.remove(standbyStartTimeSubscriber);
+        }
+        if (standbyStopTimeSubscriber != null) {
+            standbyStopTimeSubscriber.unsubscribe();
+            subscribers.remove(standbyStopTimeSubscriber);
+        }
+    }
+
     private Subscriber<Long> getStandbySubscriber(final Boolean startStandby) {
         Subscriber<Long> subscriber = new KioskerSubscriber("Error while trying to start standby subscriber.", kioskerActivity) {
             @Override
@@ -1,60 +1,97 @@
 package dk.itu.kiosker.controllers;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
+import android.os.Debug;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.widget.FrameLayout;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.activities.SettingsActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
 import dk.itu.kiosker.utils.IntentHelper;
 import dk.itu.kiosker.utils.KioskerSubscriber;
-import dk.itu.kiosker.utils.SettingsExtractor;
-import dk.itu.kiosker.utils.WebHelper;
-import dk.itu.kiosker.web.KioskerWebChromeClient;
 import dk.itu.kiosker.web.KioskerWebView;
-import dk.itu.kiosker.web.KioskerWebViewClient;
 import dk.itu.kiosker.web.NavigationLayout;
+import dk.itu.kiosker.web.OfflineCache;
+import dk.itu.kiosker.web.PageLoadTelemetry;
+import dk.itu.kiosker.web.PageRevalidator;
+import dk.itu.kiosker.web.PaneGrid;
+import dk.itu.kiosker.web.PaneGridLayout;
+import dk.itu.kiosker.web.RecyclePolicy;
+import dk.itu.kiosker.web.RequestFilter;
 import dk.itu.kiosker.web.WebPage;
+import dk.itu.kiosker.web.WebViewPool;
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 public class WebController {
+    // Settings that are baked into the web views, changing any of them means rebuilding the views.
+    static final String[] VIEW_SETTINGS_KEYS = {"home", "sites", "layout", "grid", "allowSwitching", "errorReloadMins", "errorRetryBaseSecs", "errorRefreshFailures", "errorShowLastCopy", "addSensorBridge", "offlineCacheMB", "homeCacheMins", "sitesCacheMins"};
+    // Settings for the schedules running on the web views, these can change without rebuilding the views.
+    static final String[] SCHEDULE_SETTINGS_KEYS = {"reloadPeriodMins", "homeReloadMode", "sitesReloadMode", "resetToHomeMins", "autoCycleSecondary", "autoCycleSecondaryPeriodMins", "recycleAfterHours", "recycleAfterNavigations", "recycleAboveMemoryMB"};
     public static final int tapsToOpenSettings = 5;
+    // The pool slot of the web view prerendering the next secondary site, the panes have the slots from 0.
+    private static final int STANDBY_SLOT = -1;
+    private static final int SCREEN_SAVER_SLOT = -2;
+    // How often the web views are checked against the recycle policy.
+    private static final int RECYCLE_CHECK_MINS = 5;
     private int taps = tapsToOpenSettings;
     private final KioskerActivity kioskerActivity;
     private final ArrayList<Subscriber> subscribers;
-    // Has our main web view (home) at index 0 and the sites at index 1
+    // Has the web view of each pane of the grid, our main web view (home) at index 0 and the secondary pane at index 1
     private ArrayList<KioskerWebView> webViews;
     private ArrayList<NavigationLayout> navigationLayouts;
     private Date lastTap;
-    private ArrayList<WebPage> homeWebPages;
-    private ArrayList<WebPage> sitesWebPages;
+    private PaneGrid grid;
+    private PaneGridLayout paneGridLayout;
     private int reloadPeriodMins;
-    private boolean fullScreenMode;
     private ScreenSaverController screenSaverController;
     private Subscriber<Long> secondaryCycleSubscriber;
     private int secondaryCycleIndex;
     private Observable<Long> secondaryCycleObservable;
-    private Subscriber<Long> reloadSubscriber;
+    // A hidden web view behind the secondary pane, loading the next site before it is cycled in.
+    private KioskerWebView standbyWebView;
+    private int standbyIndex;
+    private boolean standbyLoaded;
+    private boolean swapWhenLoaded;
+    // The screen saver web view in the overlay above the panes.
+    private KioskerWebView screenSaverWebView;
+    // The panes reloaded every reloadPeriodMins.
+    private final Set<Integer> reloadablePanes = new LinkedHashSet<>();
+    // Whether the panes but home were removed to save memory.
+    private boolean reducedToHomePane;
+    private final ArrayList<Subscriber<Long>> reloadSubscribers = new ArrayList<>();
+    private RecyclePolicy recyclePolicy;
+    private Subscriber<Long> recycleSubscriber;
+    // A new web view loading the page of a worn pane off screen, swapped in at the next idle moment after it has loaded.
+    private KioskerWebView replacementWebView;
+    private int replacementPane;
+    private boolean replacementLoaded;
     private int resetToHomeMins;
-    private int defaultResetToHomeMins = 2;
     private Subscriber<Long> resetToHomeSubscriber;
-    private LinkedHashMap settings;
+    private KioskSettings settings;
+    private final WebViewPool webViewPool;
+    private final OfflineCache offlineCache;
+    private final RequestFilter requestFilter;
 
     public WebController(KioskerActivity kioskerActivity, ArrayList<Subscriber> subscribers) {
         this.kioskerActivity = kioskerActivity;
@@ -62,70 +99,208 @@ public class WebController {
         lastTap = new Date();
         webViews = new ArrayList<>();
         navigationLayouts = new ArrayList<>();
+        webViewPool = new WebViewPool(kioskerActivity);
+        offlineCache = OfflineCache.getInstance(kioskerActivity);
+        requestFilter = RequestFilter.getInstance(kioskerActivity);
     }
 
-    public void handleWebSettings(LinkedHashMap settings) {
+    public void handleWebSettings(KioskSettings settings) {
         kioskerActivity.cleanUpMainView(); // Make sure that we don't have multiple webviews
 
         this.settings = settings;
+        grid = settings.grid;
 
-        reloadPeriodMins = SettingsExtractor.getInteger(settings, "reloadPeriodMins");
+        // The navigation of the sites web view needs to know if switching is allowed when it is created.
+        Constants.setBoolean(kioskerActivity, settings.allowSwitching, Constants.KIOSKER_ALLOW_SWITCHING_ID);
 
-        resetToHomeMins = SettingsExtractor.getInteger(settings, "resetToHomeMins");
-        resetToHomeMins = resetToHomeMins <= 0 ? defaultResetToHomeMins : resetToHomeMins;
-        startResetToHomeSubscription();
+        boolean clearCache = Constants.getBoolean(kioskerActivity, Constants.KIOSKER_RESET_WEBCACHE);
+        if (clearCache) offlineCache.clear();
+        offlineCache.setMaxMegabytes(settings.offlineCacheMB);
+        handleWebViewSetup(clearCache);
+        if (clearCache) Constants.setBoolean(kioskerActivity, false, Constants.KIOSKER_RESET_WEBCACHE);
 
-        // Get the layout from settings, if there is no layout defined fallback to 0 - fullscreen layout.
-        int tempLayout = SettingsExtractor.getInteger(settings, "layout");
-        int layout = (tempLayout >= 0) ? tempLayout : 0;
-        fullScreenMode = layout == 0;
+        handleWebSchedules(settings);
+        handleScreenSaverSettings(settings);
+    }
 
-        homeWebPages = SettingsExtractor.getWebPages(settings, "home");
-        sitesWebPages = SettingsExtractor.getWebPages(settings, "sites");
+    /**
+     * Restarts the reload, reset to home and secondary cycling schedules of the current web views.
+     */
+    public void handleWebSchedules(KioskSettings settings) {
+        this.settings = settings;
+        reloadPeriodMins = settings.reloadPeriodMins;
+        startReloadSubscription();
+
+        resetToHomeMins = settings.resetToHomeMins;
+        startResetToHomeSubscription();
 
-        boolean clearCache = Constants.getBoolean(kioskerActivity, Constants.KIOSKER_RESET_WEBCACHE);
-        handleWebViewSetup(layout, clearCache);
-        if (clearCache) Constants.setBoolean(kioskerActivity, false, Constants.KIOSKER_RESET_WEBCACHE);
         handleAutoCycleSecondary(settings);
 
+        recyclePolicy = new RecyclePolicy(settings);
+        webViewPool.setRecyclePolicy(recyclePolicy);
+        startRecycleSubscription();
+    }
+
+    /**
+     * Replaces the screen saver schedule with one using the given settings.
+     */
+    public void handleScreenSaverSettings(KioskSettings settings) {
+        this.settings = settings;
+        if (screenSaverController != null)
+            screenSaverController.cancelScreenSaverSubscription();
         screenSaverController = new ScreenSaverController(kioskerActivity, subscribers, this);
         screenSaverController.handleScreenSaving(settings);
-
     }
 
-    private void handleWebViewSetup(int layout, boolean clearCache) {
-        if (!homeWebPages.isEmpty()) {
-            float weight = WebHelper.layoutTranslator(layout, true);
-            // If the weight to the main view is "below" fullscreen and there are alternative sites set the main view to fullscreen.
-            if (weight < 1.0 && sitesWebPages.isEmpty())
-                setupWebView(true, homeWebPages.get(0), 1.0f, true, clearCache);
-            if (weight > 0.0)
-                setupWebView(true, homeWebPages.get(0), weight, true, clearCache);
-        }
+    private void handleWebViewSetup(boolean clearCache) {
+        if (grid.panes.isEmpty())
+            return;
+        paneGridLayout = new PaneGridLayout(kioskerActivity, grid);
+        kioskerActivity.addView(paneGridLayout);
+        for (int i = 0; i < grid.panes.size(); i++)
+            setupWebView(i == 0, grid.panes.get(i), true, clearCache);
+    }
 
-        if (!sitesWebPages.isEmpty() && !fullScreenMode) {
-            float weight = WebHelper.layoutTranslator(layout, false);
-            if (weight > 0.0)
-                setupWebView(false, sitesWebPages.get(0), weight, true, clearCache);
-        }
+    /**
+     * @return the pages of the pane, the secondary pane cycles through its pages.
+     */
+    private List<WebPage> getPages(int pane) {
+        return grid.panes.get(pane).pages;
     }
 
-    private void handleAutoCycleSecondary(LinkedHashMap settings) {
-        // Only handle secondary cycling if we are not in fullscreen layout
-        if (!fullScreenMode) {
-            boolean allowSwitching = SettingsExtractor.getBoolean(settings, "allowSwitching");
-            Constants.setBoolean(kioskerActivity, allowSwitching, Constants.KIOSKER_ALLOW_SWITCHING_ID);
-            boolean autoCycleSecondary = SettingsExtractor.getBoolean(settings, "autoCycleSecondary");
-            if (autoCycleSecondary && sitesWebPages.size() > 2) {
-                int autoCycleSecondaryPeriodMins = SettingsExtractor.getInteger(settings, "autoCycleSecondaryPeriodMins");
+    private void handleAutoCycleSecondary(KioskSettings settings) {
+        stopCycleSecondarySubscription();
+        secondaryCycleObservable = null;
+        // Only handle secondary cycling if there is a secondary pane
+        if (webViews.size() > 1) {
+            if (settings.autoCycleSecondary && getPages(1).size() > 2) {
+                int autoCycleSecondaryPeriodMins = settings.autoCycleSecondaryPeriodMins;
                 if (autoCycleSecondaryPeriodMins > 0) {
                     secondaryCycleObservable = Observable.timer(autoCycleSecondaryPeriodMins, TimeUnit.MINUTES)
                             .repeat()
                             .observeOn(AndroidSchedulers.mainThread());
                     secondaryCycleObservable.subscribe(getCycleSecondarySubscriber());
+                    prerenderNextSecondary();
+                    return;
                 }
             }
         }
+        releaseStandbyWebView();
+    }
+
+    /**
+     * Starts loading the site after the current secondary site in the standby web view.
+     */
+    private void prerenderNextSecondary() {
+        if (webViews.size() < 2)
+            return;
+        List<WebPage> sitesWebPages = getPages(1);
+        if (standbyWebView == null) {
+            standbyWebView = acquireWebView(STANDBY_SLOT, getPaneName(1), grid.panes.get(1).cacheMins);
+            standbyWebView.client.recordsHomeUrl = false;
+            addTapToSettings(standbyWebView);
+            // Behind the secondary web view in its cell, so it has the same size.
+            paneGridLayout.addBehind(standbyWebView, webViews.get(1));
+        }
+        standbyWebView.setVisibility(View.INVISIBLE);
+        standbyIndex = (secondaryCycleIndex + 1) % sitesWebPages.size();
+        standbyLoaded = false;
+        swapWhenLoaded = false;
+        final KioskerWebView target = standbyWebView;
+        target.client.setPageFinishedAction(new Action0() {
+            @Override
+            public void call() {
+                if (target != standbyWebView)
+                    return;
+                standbyLoaded = true;
+                if (swapWhenLoaded)
+                    swapSecondary();
+            }
+        });
+        target.loadUrl(sitesWebPages.get(standbyIndex).url);
+    }
+
+    /**
+     * Shows the prerendered site in the secondary pane, the web view that showed the site before prerenders the next one.
+     */
+    private void swapSecondary() {
+        if (replacementWebView != null && replacementPane == 1)
+            cancelReplacement();
+        KioskerWebView outgoing = webViews.get(1);
+        KioskerWebView incoming = standbyWebView;
+        // The memory governor may have paused it while it was hidden.
+        incoming.onResume();
+        incoming.setVisibility(View.VISIBLE);
+        outgoing.setVisibility(View.INVISIBLE);
+        webViews.set(1, incoming);
+        navigationLayouts.get(1).setWebView(incoming);
+        secondaryCycleIndex = standbyIndex;
+        standbyWebView = outgoing;
+        Log.d(Constants.TAG, "Cycled secondary screen to a prerendered site.");
+        prerenderNextSecondary();
+    }
+
+    /**
+     * Starts loading a screen saver page in the hidden overlay, so it is ready when the screen saver starts.
+     */
+    public void preloadScreenSaver(WebPage webPage, int cacheMins) {
+        if (screenSaverWebView == null) {
+            screenSaverWebView = acquireWebView(SCREEN_SAVER_SLOT, "screen saver", cacheMins);
+            screenSaverWebView.client.recordsHomeUrl = false;
+            addTapToSettings(screenSaverWebView);
+            kioskerActivity.overlayLayout.addView(screenSaverWebView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        } else
+            screenSaverWebView.onResume();
+        // Invisible rather than gone, so the page is laid out while it loads.
+        kioskerActivity.overlayLayout.setVisibility(View.INVISIBLE);
+        final KioskerWebView target = screenSaverWebView;
+        target.client.setPageFinishedAction(new Action0() {
+            @Override
+            public void call() {
+                // A loaded page waiting to be shown should not play or animate.
+                if (target == screenSaverWebView && !kioskerActivity.currentlyScreenSaving)
+                    target.onPause();
+            }
+        });
+        target.loadUrl(webPage.url);
+    }
+
+    /**
+     * Shows the preloaded screen saver above the panes, which are paused until it is hidden.
+     */
+    public void showScreenSaver() {
+        if (screenSaverWebView == null)
+            return;
+        screenSaverWebView.onResume();
+        kioskerActivity.overlayLayout.setVisibility(View.VISIBLE);
+        for (KioskerWebView webView : webViews)
+            webView.onPause();
+        if (standbyWebView != null)
+            standbyWebView.onPause();
+    }
+
+    public void hideScreenSaver() {
+        releaseScreenSaverWebView();
+        for (KioskerWebView webView : webViews)
+            webView.onResume();
+        if (standbyWebView != null)
+            standbyWebView.onResume();
+    }
+
+    private void releaseScreenSaverWebView() {
+        if (kioskerActivity.overlayLayout != null)
+            kioskerActivity.overlayLayout.setVisibility(View.GONE);
+        if (screenSaverWebView != null) {
+            webViewPool.release(SCREEN_SAVER_SLOT, screenSaverWebView);
+            screenSaverWebView = null;
+        }
+    }
+
+    private void releaseStandbyWebView() {
+        if (standbyWebView != null) {
+            webViewPool.release(STANDBY_SLOT, standbyWebView);
+            standbyWebView = null;
+        }
     }
 
     private Subscriber<Long> getCycleSecondarySubscriber() {
@@ -147,10 +322,16 @@ public class WebController {
 
             @Override
             public void onNext(Long l) {
-                if (webViews.size() > 1 && !kioskerActivity.currentlyInStandbyPeriod) {
+                if (webViews.size() > 1 && !kioskerActivity.currentlyInStandbyPeriod && standbyWebView != null) {
+                    // Swap in the prerendered site, or as soon as it has loaded.
+                    if (standbyLoaded)
+                        swapSecondary();
+                    else
+                        swapWhenLoaded = true;
+                } else if (webViews.size() > 1 && !kioskerActivity.currentlyInStandbyPeriod) {
                     Log.d(Constants.TAG, "Cycling secondary screen.");
-                    secondaryCycleIndex = (secondaryCycleIndex + 1) % sitesWebPages.size();
-                    String url = sitesWebPages.get(secondaryCycleIndex).url;
+                    secondaryCycleIndex = (secondaryCycleIndex + 1) % getPages(1).size();
+                    String url = getPages(1).get(secondaryCycleIndex).url;
                     // Get the secondary web view and load the next url in that
                     webViews.get(1).loadUrl(url);
                 } else {
@@ -168,69 +349,51 @@ public class WebController {
      * Setup the WebViews we need.
      *
      * @param homeView       is this the main view, if so we don't allow the user to change the url.
-     * @param webPage        the main url for this web view.
-     * @param weight         how much screen estate should this main take?
+     * @param pane           the cell of the grid this web view takes and its pages, the first page is loaded.
      * @param allowReloading should this be reloaded according to the reloadPeriodMins from the settings?
+     *                       This only takes effect when the reload schedule is (re)started.
      */
-    protected void setupWebView(boolean homeView, WebPage webPage, float weight, boolean allowReloading, boolean clearCache) {
-        KioskerWebView webView = getWebView();
+    protected void setupWebView(boolean homeView, PaneGrid.Pane pane, boolean allowReloading, boolean clearCache) {
+        // Panes keep their slot across refreshes and screen savers, so they get back the web view they had.
+        KioskerWebView webView = acquireWebView(webViews.size(), getPaneName(webViews.size()), pane.cacheMins);
         if (clearCache) webView.clearCache(true);
         webViews.add(webView);
-        webView.loadUrl(webPage.url);
+        webView.loadUrl(pane.pages.get(0).url);
         addTapToSettings(webView);
-        if (reloadPeriodMins > 0 && allowReloading) {
-            if (reloadSubscriber != null) {
-                reloadSubscriber.unsubscribe();
-                subscribers.remove(reloadSubscriber);
-            }
-
-            reloadSubscriber = reloadSubscriber(webView);
-            Observable.timer(reloadPeriodMins, TimeUnit.MINUTES)
-                    .repeat()
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(reloadSubscriber);
-        }
-
-        // A frame layout enables us to overlay the navigation on the web view.
-        FrameLayout frameLayout = new FrameLayout(kioskerActivity);
-        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
-        frameLayout.setLayoutParams(params);
+        if (allowReloading)
+            reloadablePanes.add(webViews.size() - 1);
 
         // Add navigation options to the web view.
-        NavigationLayout navigationLayout = new NavigationLayout(homeView, kioskerActivity, webView, sitesWebPages);
+        NavigationLayout navigationLayout = new NavigationLayout(homeView, kioskerActivity, webView, new ArrayList<>(pane.pages));
         navigationLayout.hideNavigation();
         navigationLayouts.add(navigationLayout);
 
-        // Add the web view and our navigation in a frame layout.
-        frameLayout.addView(webView);
-        frameLayout.addView(navigationLayout);
-        kioskerActivity.addView(frameLayout, weight);
+        // The navigation is overlaid on the web view in the cell of the pane.
+        paneGridLayout.addView(webView, new PaneGridLayout.LayoutParams(pane));
+        paneGridLayout.addView(navigationLayout, new PaneGridLayout.LayoutParams(pane));
     }
 
     /**
-     * Returns a WebView with a specified weight.
-     *
-     * @return a WebView with the specified weight.
+     * @param pane      the pane the blocked requests and page loads of the web view are counted for.
+     * @param cacheMins how long pages of the web view are fresh in the offline cache.
+     * @return a web view from the pool, filtering its requests, serving them from the offline cache and recording its page loads.
+     */
+    private KioskerWebView acquireWebView(int slot, String pane, int cacheMins) {
+        return configureWebView(webViewPool.acquire(slot, settings), pane, cacheMins);
+    }
+
+    /**
+     * @return the name the blocked requests and page loads of a pane of the grid are counted under, the home pane is pane 0.
      */
-    @SuppressLint("SetJavaScriptEnabled")
-    private KioskerWebView getWebView() {
-        WebView.setWebContentsDebuggingEnabled(true);
-        final KioskerWebView webView = new KioskerWebView(kioskerActivity);
-        KioskerWebViewClient client = new KioskerWebViewClient(settings, kioskerActivity);
-        webView.client = client;
-        webView.setWebViewClient(client);
-        webView.setWebChromeClient(new KioskerWebChromeClient());
-
-        // Disable hardware acceleration because of rendering bug in Kit Kat. Sometimes it would throw "W/AwContents﹕ nativeOnDraw failed; clearing to background color." errors.
-//        webView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-
-        WebSettings webSettings = webView.getSettings();
-        webSettings.setJavaScriptEnabled(true);
-        webSettings.setBuiltInZoomControls(true);
-        webSettings.setDisplayZoomControls(false);
-        webSettings.setDomStorageEnabled(true);
-        webSettings.setAppCacheEnabled(true);
-        webSettings.setDatabaseEnabled(true);
+    private static String getPaneName(int pane) {
+        return "pane " + pane;
+    }
+
+    private KioskerWebView configureWebView(KioskerWebView webView, String pane, int cacheMins) {
+        webView.client.setRequestFilter(requestFilter, requestFilter.getCounter(pane));
+        webView.client.setPageLoad(PageLoadTelemetry.getInstance().newPageLoad(pane));
+        if (offlineCache.isEnabled())
+            webView.client.setOfflineCache(offlineCache, cacheMins, webView.getSettings().getUserAgentString());
         return webView;
     }
 
@@ -280,20 +443,280 @@ public class WebController {
     }
 
     public void clearWebViews() {
+        cancelReplacement();
+        releaseStandbyWebView();
+        releaseScreenSaverWebView();
         if (webViews != null) {
-            for (KioskerWebView webView : webViews) {
-                webView.loadUrl("about:blank");
-                webView.stopSensors();
-                webView.destroy();
-            }
+            for (int i = 0; i < webViews.size(); i++)
+                webViewPool.release(i, webViews.get(i));
         }
         if (navigationLayouts != null)
             for (NavigationLayout navigationLayout : navigationLayouts)
                 navigationLayout.removeAllViews();
         navigationLayouts = resetArray(navigationLayouts);
         webViews = resetArray(webViews);
-        homeWebPages = resetArray(homeWebPages);
-        sitesWebPages = resetArray(sitesWebPages);
+        reloadablePanes.clear();
+        reducedToHomePane = false;
+        paneGridLayout = null;
+    }
+
+    /**
+     * Destroys the web views kept for reuse.
+     */
+    public void trimWebViewPool() {
+        webViewPool.trim();
+    }
+
+    /**
+     * Frees what the live web views can give up without reloading and drops the in-memory cache they share.
+     *
+     * @return the number of web views trimmed.
+     */
+    int trimWebViewCaches() {
+        int trimmed = 0;
+        for (KioskerWebView webView : getLiveWebViews()) {
+            webView.freeMemory();
+            trimmed++;
+        }
+        // The cache is shared by all web views, the disk cache is kept since the offline cache serves from its own files.
+        if (!webViews.isEmpty())
+            webViews.get(0).clearCache(false);
+        return trimmed;
+    }
+
+    /**
+     * Destroys the prerendering web view and the web views kept for reuse.
+     * The next secondary site is loaded when it is cycled in instead of prerendered.
+     *
+     * @return the number of web views destroyed.
+     */
+    int destroyHiddenWebViews() {
+        int destroyed = webViewPool.size();
+        if (replacementWebView != null) {
+            cancelReplacement();
+            destroyed++;
+        }
+        if (standbyWebView != null) {
+            releaseStandbyWebView();
+            destroyed++;
+        }
+        webViewPool.trim();
+        return destroyed;
+    }
+
+    /**
+     * Pauses the web views that are not on screen, they are resumed when they are shown.
+     *
+     * @return the number of web views paused.
+     */
+    int pauseHiddenWebViews() {
+        int paused = 0;
+        for (KioskerWebView webView : getLiveWebViews())
+            if (!webView.isShown() && !webView.isPaused()) {
+                webView.onPause();
+                paused++;
+            }
+        return paused;
+    }
+
+    /**
+     * Removes every pane but the home pane, which gets the whole screen.
+     * The panes come back the next time the web views are built from the settings.
+     *
+     * @return the number of panes removed.
+     */
+    int reduceToHomePane() {
+        if (webViews.size() < 2)
+            return 0;
+        stopCycleSecondarySubscription();
+        secondaryCycleObservable = null;
+        cancelReplacement();
+        releaseStandbyWebView();
+        int removed = 0;
+        for (int i = webViews.size() - 1; i > 0; i--) {
+            NavigationLayout navigationLayout = navigationLayouts.remove(i);
+            navigationLayout.removeAllViews();
+            paneGridLayout.removeView(navigationLayout);
+            reloadablePanes.remove(i);
+            webViewPool.release(i, webViews.remove(i));
+            removed++;
+        }
+        paneGridLayout.fillGrid(webViews.get(0));
+        paneGridLayout.fillGrid(navigationLayouts.get(0));
+        webViewPool.trim();
+        reducedToHomePane = true;
+        return removed;
+    }
+
+    /**
+     * @return true if panes were removed to save memory since the web views were last built.
+     */
+    boolean isReducedToHomePane() {
+        return reducedToHomePane;
+    }
+
+    private ArrayList<KioskerWebView> getLiveWebViews() {
+        ArrayList<KioskerWebView> liveWebViews = new ArrayList<>(webViews);
+        if (standbyWebView != null)
+            liveWebViews.add(standbyWebView);
+        if (screenSaverWebView != null)
+            liveWebViews.add(screenSaverWebView);
+        if (replacementWebView != null)
+            liveWebViews.add(replacementWebView);
+        return liveWebViews;
+    }
+
+    /**
+     * Checks the web views against the recycle policy every RECYCLE_CHECK_MINS.
+     * The memory of the app is measured off the main thread, since that takes a while.
+     */
+    private void startRecycleSubscription() {
+        if (recycleSubscriber != null && !recycleSubscriber.isUnsubscribed()) {
+            recycleSubscriber.unsubscribe();
+            subscribers.remove(recycleSubscriber);
+        }
+        cancelReplacement();
+        if (!recyclePolicy.isEnabled())
+            return;
+        final RecyclePolicy policy = recyclePolicy;
+        recycleSubscriber = new KioskerSubscriber("Error while recycling web views.", kioskerActivity) {
+            @Override
+            public void onNext(Long pssKb) {
+                recycleWornWebView(pssKb);
+            }
+        };
+        subscribers.add(recycleSubscriber);
+        Observable.timer(RECYCLE_CHECK_MINS, TimeUnit.MINUTES)
+                .repeat()
+                .map(new Func1<Long, Long>() {
+                    @Override
+                    public Long call(Long aLong) {
+                        return policy.watchesMemory() ? Debug.getPss() : 0L;
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(recycleSubscriber);
+    }
+
+    /**
+     * Replaces at most one worn web view, and only while nobody is using the device.
+     * The secondary pane is left alone while it cycles, its web view is replaced once it has become the prerendering one.
+     */
+    private void recycleWornWebView(long pssKb) {
+        if (!isIdle())
+            return;
+        if (replacementWebView != null) {
+            if (replacementLoaded)
+                swapInReplacement();
+            return;
+        }
+        ArrayList<KioskerWebView> candidates = new ArrayList<>(webViews);
+        if (standbyWebView != null) {
+            candidates.remove(webViews.get(1));
+            candidates.add(standbyWebView);
+        }
+        for (KioskerWebView webView : candidates) {
+            String reason = recyclePolicy.getReason(webView);
+            if (reason != null) {
+                recycle(webView, reason);
+                return;
+            }
+        }
+        if (!recyclePolicy.isOverMemory(pssKb))
+            return;
+        // The oldest web view is the most likely to have grown.
+        KioskerWebView oldest = null;
+        for (KioskerWebView webView : candidates)
+            if (recyclePolicy.mayRecycleForMemory(webView) && (oldest == null || webView.getAgeMillis() > oldest.getAgeMillis()))
+                oldest = webView;
+        String reason = String.format("the app uses %d MB", pssKb / 1024);
+        if (oldest == null)
+            Log.d(Constants.TAG, String.format("Not recycling, %s but every web view is new.", reason));
+        else
+            recycle(oldest, reason);
+    }
+
+    private void recycle(KioskerWebView webView, String reason) {
+        if (webView != standbyWebView)
+            startReplacement(webViews.indexOf(webView), reason);
+        // A prerendered site waiting to be swapped in is replaced after the swap.
+        else if (!swapWhenLoaded)
+            renewStandbyWebView(reason);
+    }
+
+    private boolean isIdle() {
+        return !kioskerActivity.userIsInteractingWithDevice && !kioskerActivity.currentlyScreenSaving;
+    }
+
+    /**
+     * Starts loading the page of the pane in a new web view behind the pane.
+     */
+    private void startReplacement(int pane, String reason) {
+        KioskerWebView worn = webViews.get(pane);
+        String url = worn.getUrl();
+        // A pane showing a failure is already reloading, the page it is trying to load is not known here.
+        if (url == null || worn.client == null || worn.client.isShowingFailure())
+            return;
+        Log.d(Constants.TAG, String.format("Recycling the web view of pane %d showing %s, %s.", pane, url, reason));
+        final KioskerWebView replacement = configureWebView(webViewPool.acquireNew(settings), getPaneName(pane), grid.panes.get(pane).cacheMins);
+        // The home url was recorded by the web view being replaced, the page this one loads may have been navigated to since.
+        replacement.client.recordsHomeUrl = false;
+        replacement.setVisibility(View.INVISIBLE);
+        paneGridLayout.addBehind(replacement, worn);
+        replacementWebView = replacement;
+        replacementPane = pane;
+        replacementLoaded = false;
+        replacement.client.setPageFinishedAction(new Action0() {
+            @Override
+            public void call() {
+                if (replacement != replacementWebView)
+                    return;
+                // A page that failed is not shown instead of a working one, the pane is tried again at the next check.
+                if (replacement.client.isShowingFailure()) {
+                    Log.d(Constants.TAG, "The replacement web view failed to load, keeping the worn one for now.");
+                    cancelReplacement();
+                    return;
+                }
+                replacementLoaded = true;
+                if (isIdle())
+                    swapInReplacement();
+            }
+        });
+        replacement.loadUrl(url);
+    }
+
+    /**
+     * Shows the replacement web view in its pane and destroys the worn web view it replaces.
+     */
+    private void swapInReplacement() {
+        KioskerWebView worn = webViews.get(replacementPane);
+        KioskerWebView replacement = replacementWebView;
+        replacementWebView = null;
+        addTapToSettings(replacement);
+        replacement.onResume();
+        replacement.setVisibility(View.VISIBLE);
+        webViews.set(replacementPane, replacement);
+        navigationLayouts.get(replacementPane).setWebView(replacement);
+        webViewPool.discard(worn);
+        Log.d(Constants.TAG, String.format("Replaced the web view of pane %d.", replacementPane));
+    }
+
+    private void cancelReplacement() {
+        if (replacementWebView != null) {
+            webViewPool.discard(replacementWebView);
+            replacementWebView = null;
+        }
+    }
+
+    /**
+     * Replaces the hidden prerendering web view by a new one, which prerenders the next secondary site again.
+     */
+    private void renewStandbyWebView(String reason) {
+        Log.d(Constants.TAG, String.format("Recycling the prerendering web view, %s.", reason));
+        KioskerWebView worn = standbyWebView;
+        standbyWebView = null;
+        webViewPool.discard(worn);
+        prerenderNextSecondary();
     }
 
     private <T> ArrayList<T> resetArray(ArrayList<T> array) {
@@ -312,10 +735,10 @@ public class WebController {
         Observable.from(1).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Integer>() {
             @Override
             public void call(Integer integer) {
-                if (!webViews.isEmpty() && !homeWebPages.isEmpty())
+                if (!webViews.isEmpty())
                     for (int i = 0; i < webViews.size(); i++) {
                         if (i == 0)
-                            webViews.get(i).loadUrl(homeWebPages.get(0).url);
+                            webViews.get(i).loadUrl(getPages(0).get(0).url);
                         else
                             webViews.get(i).reload();
                     }
@@ -324,36 +747,93 @@ public class WebController {
     }
 
     /**
-     * Get subscriber for reloading the web view.
-     *
-     * @param webView the web view you want reloaded.
+     * Start reloading each reloadable pane every reloadPeriodMins, in the reload mode of the pane.
      */
-    private Subscriber<Long> reloadSubscriber(final WebView webView) {
-        if (reloadSubscriber != null && !reloadSubscriber.isUnsubscribed()) {
+    private void startReloadSubscription() {
+        for (Subscriber<Long> reloadSubscriber : reloadSubscribers) {
             reloadSubscriber.unsubscribe();
             subscribers.remove(reloadSubscriber);
         }
-        reloadSubscriber = new KioskerSubscriber("Error while reloading web view.", kioskerActivity) {
+        reloadSubscribers.clear();
+        if (reloadPeriodMins <= 0)
+            return;
+        for (int pane : reloadablePanes) {
+            // The grid of the new settings, the reload modes the panes fall back to are schedule settings.
+            String reloadMode = settings.grid.panes.get(pane).reloadMode;
+            Subscriber<Long> reloadSubscriber = reloadSubscriber(pane, KioskSettings.RELOAD_IF_CHANGED.equals(reloadMode));
+            Observable.timer(reloadPeriodMins, TimeUnit.MINUTES)
+                    .repeat()
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(reloadSubscriber);
+        }
+    }
+
+    /**
+     * Get subscriber for reloading a pane.
+     * The web view is looked up on every reload since cycling the secondary pane swaps it.
+     *
+     * @param ifChanged only reload when the page has changed on the server.
+     */
+    private Subscriber<Long> reloadSubscriber(final int pane, final boolean ifChanged) {
+        final PageRevalidator revalidator = ifChanged ? new PageRevalidator() : null;
+        Subscriber<Long> reloadSubscriber = new KioskerSubscriber("Error while reloading web view.", kioskerActivity) {
             @Override
             public void onNext(Long aLong) {
-                String url = webView.getUrl();
+                KioskerWebView webView = pane < webViews.size() ? webViews.get(pane) : null;
+                String url = webView == null ? null : webView.getUrl();
                 if (url == null || kioskerActivity.currentlyInStandbyPeriod) {
                     unsubscribe();
                     subscribers.remove(this);
-                } else {
-                    if (Constants.isNetworkAvailable(kioskerActivity)) {
-                        Log.d(Constants.TAG, String.format("Reloading web view with url %s.", url));
-                        webView.reload();
-                        webView.clearCache(true);
-                    } else
-                        kioskerActivity.refreshDevice();
+                    reloadSubscribers.remove(this);
+                } else if (!Constants.isNetworkAvailable(kioskerActivity))
+                    kioskerActivity.refreshDevice();
+                else if (ifChanged)
+                    reloadIfChanged(webView, url, revalidator);
+                else {
+                    Log.d(Constants.TAG, String.format("Reloading web view with url %s.", url));
+                    webView.reload();
                 }
             }
         };
+        // The first check of a page only records it, so it is checked now rather than one reload period from now.
+        KioskerWebView webView = pane < webViews.size() ? webViews.get(pane) : null;
+        if (ifChanged && webView != null && webView.getUrl() != null)
+            reloadIfChanged(webView, webView.getUrl(), revalidator);
         subscribers.add(reloadSubscriber);
+        reloadSubscribers.add(reloadSubscriber);
         return reloadSubscriber;
     }
 
+    /**
+     * Checks the page in the background and reloads the web view if the page has changed and is still showing.
+     */
+    private void reloadIfChanged(final KioskerWebView webView, final String url, final PageRevalidator revalidator) {
+        final String userAgent = webView.getSettings().getUserAgentString();
+        Observable.from(url)
+                .observeOn(Schedulers.io())
+                .map(new Func1<String, Boolean>() {
+                    @Override
+                    public Boolean call(String url) {
+                        try {
+                            return revalidator.hasChanged(url, userAgent);
+                        } catch (IOException e) {
+                            Log.d(Constants.TAG, String.format("Could not revalidate %s, not reloading.", url), e);
+                            return false;
+                        }
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<Boolean>() {
+                    @Override
+                    public void call(Boolean changed) {
+                        if (changed && webViews.contains(webView) && url.equals(webView.getUrl())) {
+                            Log.d(Constants.TAG, String.format("Reloading changed web view with url %s.", url));
+                            webView.reload();
+                        }
+                    }
+                });
+    }
+
     public void startScreenSaverSubscription() {
         if (screenSaverController != null)
             screenSaverController.startScreenSaverSubscription();
@@ -3,20 +3,10 @@ package dk.itu.kiosker.models;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
 import dk.itu.kiosker.activities.KioskerActivity;
-import dk.itu.kiosker.utils.CustomerErrorLogger;
+import dk.itu.kiosker.utils.ConnectivityMonitor;
 import dk.itu.kiosker.utils.RootHelper;
-import rx.Observable;
-import rx.functions.Action1;
-import rx.schedulers.Schedulers;
 
 // Constants and other device specific settings.
 public class Constants {
@@ -45,6 +35,7 @@ public class Constants {
     public static String KIOSKER_LATEST_EXCEPTION_ID = "kiosker_latest_exception_id";
     public static String KIOSKER_INITIAL_RUN = "initial_run_of_application";
     public static String KIOSKER_ALLOW_SWITCHING_ID = "kiosker_allow_switching_id";
+    public static String KIOSKER_ROLLBACK_VERSION_ID = "kiosker_rollback_version_id";
 
     public static String JSON_BASE_URL = "";
     public static String settingsText = "No settings loaded.";
@@ -54,33 +45,14 @@ public class Constants {
     }
 
     public static Boolean hasSafeSettings(KioskerActivity kioskerActivity) {
-        return !LocalSettings.getSafeJson(kioskerActivity).isEmpty();
+        return LocalSettings.hasSafeSettings(kioskerActivity);
     }
 
+    /**
+     * @return the connectivity last seen by the {@link ConnectivityMonitor}, this never waits on the network.
+     */
     public static boolean isNetworkAvailable(final KioskerActivity activity) {
-        final boolean[] isNetworkAvailable = {false};
-        ConnectivityManager connMgr = (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo netInfo = connMgr.getActiveNetworkInfo();
-        final boolean connected = netInfo != null && netInfo.isConnected();
-        Observable.from(1L).subscribeOn(Schedulers.newThread()).toBlockingObservable().forEach(new Action1<Long>() {
-            @Override
-            public void call(Long aLong) {
-                if (connected) {
-                    try {
-                        URL url = new URL("http://www.google.com");
-                        HttpURLConnection http = (HttpURLConnection) url.openConnection();
-                        http.setRequestProperty("User-Agent", "Android Application");
-                        http.setRequestProperty("Connection", "close");
-                        http.setConnectTimeout(30 * 1000);
-                        http.connect();
-                        isNetworkAvailable[0] = (http.getResponseCode() == 200);
-                    } catch (IOException e) {
-                        CustomerErrorLogger.log("Error while checking if network is available.", e, activity);
-                    }
-                }
-            }
-        });
-        return isNetworkAvailable[0];
+        return ConnectivityMonitor.getInstance(activity).isNetworkAvailable();
     }
 
     public static void killApp(Context context) {
@@ -98,38 +70,28 @@ public class Constants {
     }
 
     public static String getString(Activity activity, String key) {
-        SharedPreferences prefs = activity.getSharedPreferences(key, Context.MODE_PRIVATE);
-        return prefs.getString(key, "");
+        return PreferenceStore.getInstance(activity).getString(key, "");
     }
 
     public static void setString(Activity activity, String string, String key) {
-        SharedPreferences.Editor editor = activity.getSharedPreferences(key, Context.MODE_PRIVATE).edit();
-        editor.putString(key, string);
-        editor.apply();
-        editor.commit();
+        PreferenceStore.getInstance(activity).putString(key, string);
     }
 
     public static boolean getBoolean(Activity activity, String key) {
-        SharedPreferences prefs = activity.getSharedPreferences(key, Context.MODE_PRIVATE);
-        return prefs.getBoolean(key, false);
+        return PreferenceStore.getInstance(activity).getBoolean(key, false);
     }
 
     public static void setBoolean(Activity activity, Boolean bool, String key) {
         if (bool == null)
             bool = false;
-        SharedPreferences.Editor editor = activity.getSharedPreferences(key, Context.MODE_PRIVATE).edit();
-        editor.putBoolean(key, bool);
-        editor.apply();
+        PreferenceStore.getInstance(activity).putBoolean(key, bool);
     }
 
     public static float getFloat(Activity activity, String key) {
-        SharedPreferences prefs = activity.getSharedPreferences(key, Context.MODE_PRIVATE);
-        return prefs.getFloat(key, 1.0f);
+        return PreferenceStore.getInstance(activity).getFloat(key, 1.0f);
     }
 
     public static void setFloat(Activity activity, float f, String key) {
-        SharedPreferences.Editor editor = activity.getSharedPreferences(key, Context.MODE_PRIVATE).edit();
-        editor.putFloat(key, f);
-        editor.apply();
+        PreferenceStore.getInstance(activity).putFloat(key, f);
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package dk.itu.kiosker.models;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.itu.kiosker.utils.KioskSettingsParser;
+import dk.itu.kiosker.web.PaneGrid;
+import dk.itu.kiosker.web.WebPage;
+
+/**
+ * The settings of the device with every known setting typed and defaulted.
+ * Built once per download from a document checked by {@link KioskSettingsParser},
+ * so the controllers never have to look up or cast a raw value themselves.
+ */
+public class KioskSettings {
+    public static final KioskSettings EMPTY = new KioskSettings(new LinkedHashMap());
+    // Reload modes of a pane, reload on every reload period or only when the page has changed.
+    public static final String RELOAD_ALWAYS = "always";
+    public static final String RELOAD_IF_CHANGED = "ifChanged";
+
+    private final Map values;
+
+    // Web settings.
+    public final int layout;
+    public final List<WebPage> home;
+    public final List<WebPage> sites;
+    // The panes of the screen, from the grid setting or else from the layout, home and sites settings.
+    public final PaneGrid grid;
+    public final boolean allowSwitching;
+    public final int reloadPeriodMins;
+    public final String homeReloadMode;
+    public final String sitesReloadMode;
+    public final int resetToHomeMins;
+    public final boolean autoCycleSecondary;
+    public final int autoCycleSecondaryPeriodMins;
+    // A failing page is loaded again after a delay growing from errorRetryBaseSecs up to errorReloadMins,
+    // the device is refreshed after errorRefreshFailures failures in a row.
+    public final int errorReloadMins;
+    public final int errorRetryBaseSecs;
+    public final int errorRefreshFailures;
+    public final boolean errorShowLastCopy;
+    public final boolean addSensorBridge;
+    // The size of the offline cache, 0 if pages should not be cached, and how long cached pages are fresh for each pane.
+    public final int offlineCacheMB;
+    public final int homeCacheMins;
+    public final int sitesCacheMins;
+    // A web view is replaced by a new one when it is recycleAfterHours old, has made recycleAfterNavigations navigations
+    // or the app uses more than recycleAboveMemoryMB, 0 if it should not be replaced for that reason.
+    public final int recycleAfterHours;
+    public final int recycleAfterNavigations;
+    public final int recycleAboveMemoryMB;
+    // Where to download the rules for blocking requests of the web views, empty if nothing should be blocked.
+    public final String filterRulesUrl;
+
+    // Screen saver settings.
+    public final int screenSavePeriodMins;
+    public final int screenSaveLengthMins;
+    public final List<WebPage> screensavers;
+    public final int screensaverCacheMins;
+
+    // Sound settings.
+    public final boolean mute;
+    public final int volume;
+    public final String quietHoursStartTime;
+    public final String quietHoursStopTime;
+
+    // Standby settings.
+    public final float brightness;
+    public final float dimmedBrightness;
+    public final int idlePeriodMins;
+    public final String standbyStartTime;
+    public final String standbyStopTime;
+
+    // Hardware and wifi settings.
+    public final boolean allowHome;
+    public final boolean manualWifi;
+    public final String wifiSSID;
+
+    // Where to listen for settings changes, empty if the device should not listen.
+    public final String settingsEventsUrl;
+
+    // Retry settings for when the settings server fails.
+    public final int retryBaseSecs;
+    public final int retryMaxSecs;
+    public final int circuitBreakerFailures;
+    public final int circuitBreakerOpenMins;
+
+    // Passwords.
+    public final String passwordHash;
+    public final String passwordSalt;
+    public final String masterPasswordHash;
+    public final String masterPasswordSalt;
+
+    /**
+     * @param values settings checked by {@link KioskSettingsParser}, the map is copied.
+     */
+    public KioskSettings(LinkedHashMap values) {
+        this.values = Collections.unmodifiableMap(new LinkedHashMap(values));
+
+        // If there is no layout defined fallback to 0 - fullscreen layout.
+        layout = Math.max(getInteger("layout"), 0);
+        home = getWebPages("home");
+        sites = getWebPages("sites");
+        allowSwitching = getBoolean("allowSwitching");
+        reloadPeriodMins = getInteger("reloadPeriodMins");
+        homeReloadMode = getReloadMode("homeReloadMode");
+        sitesReloadMode = getReloadMode("sitesReloadMode");
+        int tempResetToHomeMins = getInteger("resetToHomeMins");
+        resetToHomeMins = tempResetToHomeMins <= 0 ? 2 : tempResetToHomeMins;
+        autoCycleSecondary = getBoolean("autoCycleSecondary");
+        autoCycleSecondaryPeriodMins = getInteger("autoCycleSecondaryPeriodMins");
+        errorReloadMins = getInteger("errorReloadMins");
+        int tempErrorRetry = getInteger("errorRetryBaseSecs");
+        errorRetryBaseSecs = tempErrorRetry <= 0 ? 15 : tempErrorRetry;
+        tempErrorRetry = getInteger("errorRefreshFailures");
+        errorRefreshFailures = tempErrorRetry <= 0 ? 5 : tempErrorRetry;
+        errorShowLastCopy = getBoolean("errorShowLastCopy");
+        addSensorBridge = getBoolean("addSensorBridge");
+        offlineCacheMB = Math.max(getInteger("offlineCacheMB"), 0);
+        homeCacheMins = Math.max(getInteger("homeCacheMins"), 0);
+        sitesCacheMins = Math.max(getInteger("sitesCacheMins"), 0);
+        // The panes fall back to the reload modes and cache times of home and sites.
+        grid = getGrid();
+        recycleAfterHours = Math.max(getInteger("recycleAfterHours"), 0);
+        recycleAfterNavigations = Math.max(getInteger("recycleAfterNavigations"), 0);
+        recycleAboveMemoryMB = Math.max(getInteger("recycleAboveMemoryMB"), 0);
+        filterRulesUrl = getString("filterRulesUrl");
+
+        screenSavePeriodMins = getInteger("screenSavePeriodMins");
+        screenSaveLengthMins = getInteger("screenSaveLengthMins");
+        screensavers = getWebPages("screensavers");
+        screensaverCacheMins = Math.max(getInteger("screensaverCacheMins"), 0);
+
+        mute = getBoolean("mute");
+        int tempVolume = getInteger("volume");
+        volume = tempVolume > 0 ? tempVolume : 50;
+        quietHoursStartTime = getString("quietHoursStartTime");
+        quietHoursStopTime = getString("quietHoursStopTime");
+
+        int tempBrightness = getInteger("brightness");
+        brightness = tempBrightness <= 0 ? 1.0f : (float) (tempBrightness / 100.0);
+        tempBrightness = getInteger("dimmedBrightness");
+        dimmedBrightness = tempBrightness <= 0 ? 0.7f : (float) (tempBrightness / 100.0);
+        idlePeriodMins = getInteger("idlePeriodMins");
+        standbyStartTime = getString("standbyStartTime");
+        standbyStopTime = getString("standbyStopTime");
+
+        allowHome = getBoolean("allowHome");
+        manualWifi = getBoolean("manualWifi");
+        wifiSSID = getString("wifiSSID");
+
+        settingsEventsUrl = getString("settingsEventsUrl");
+
+        int tempRetry = getInteger("retryBaseSecs");
+        retryBaseSecs = tempRetry <= 0 ? 5 : tempRetry;
+        tempRetry = getInteger("retryMaxSecs");
+        retryMaxSecs = tempRetry <= 0 ? 10 * 60 : tempRetry;
+        tempRetry = getInteger("circuitBreakerFailures");
+        circuitBreakerFailures = tempRetry <= 0 ? 5 : tempRetry;
+        tempRetry = getInteger("circuitBreakerOpenMins");
+        circuitBreakerOpenMins = tempRetry <= 0 ? 5 : tempRetry;
+
+        passwordHash = getString("passwordHash");
+        passwordSalt = getString("passwordSalt");
+        masterPasswordHash = getString("masterPasswordHash");
+        masterPasswordSalt = getString("masterPasswordSalt");
+    }
+
+    public static KioskSettings parse(InputStream in) throws IOException {
+        return new KioskSettings(KioskSettingsParser.parse(in));
+    }
+
+    public static KioskSettings parse(String json) throws IOException {
+        return new KioskSettings(KioskSettingsParser.parse(json));
+    }
+
+    /**
+     * @return the settings as they were downloaded, used for comparing, storing and showing them.
+     */
+    public Map getValues() {
+        return values;
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    private int getInteger(String key) {
+        return values.containsKey(key) ? (int) values.get(key) : -1;
+    }
+
+    private boolean getBoolean(String key) {
+        return values.containsKey(key) && (boolean) values.get(key);
+    }
+
+    private String getString(String key) {
+        return values.containsKey(key) ? (String) values.get(key) : "";
+    }
+
+    private String getReloadMode(String key) {
+        return toReloadMode(getString(key));
+    }
+
+    private static String toReloadMode(String reloadMode) {
+        return RELOAD_IF_CHANGED.equals(reloadMode) ? RELOAD_IF_CHANGED : RELOAD_ALWAYS;
+    }
+
+    private List<WebPage> getWebPages(String key) {
+        return toWebPages(values.containsKey(key) ? (List<Map>) values.get(key) : Collections.<Map>emptyList());
+    }
+
+    private static List<WebPage> toWebPages(List<Map> maps) {
+        ArrayList<WebPage> webPages = new ArrayList<>();
+        for (Map m : maps)
+            webPages.add(new WebPage((String) m.get("url"), (String) m.get("title")));
+        return Collections.unmodifiableList(webPages);
+    }
+
+    private PaneGrid getGrid() {
+        if (!values.containsKey("grid"))
+            return PaneGrid.fromLayout(layout, new PaneGrid.Pane(0, 0, 1, 1, home, homeCacheMins, homeReloadMode), new PaneGrid.Pane(0, 0, 1, 1, sites, sitesCacheMins, sitesReloadMode));
+        Map grid = (Map) values.get("grid");
+        ArrayList<PaneGrid.Pane> panes = new ArrayList<>();
+        for (Map pane : (List<Map>) grid.get("panes")) {
+            // The first pane is the home pane, the others are site panes.
+            boolean homePane = panes.isEmpty();
+            int cacheMins = pane.containsKey("cacheMins") ? (int) pane.get("cacheMins") : homePane ? homeCacheMins : sitesCacheMins;
+            String reloadMode = pane.containsKey("reloadMode") ? toReloadMode((String) pane.get("reloadMode")) : homePane ? homeReloadMode : sitesReloadMode;
+            panes.add(new PaneGrid.Pane((int) pane.get("row"), (int) pane.get("column"), (int) pane.get("rowSpan"), (int) pane.get("columnSpan"), toWebPages((List<Map>) pane.get("pages")), cacheMins, reloadMode));
+        }
+        return new PaneGrid(getWeights(grid, "rowWeights", (int) grid.get("rows")), getWeights(grid, "columnWeights", (int) grid.get("columns")), panes);
+    }
+
+    // Equal weights if the grid does not set them.
+    private static float[] getWeights(Map grid, String key, int count) {
+        float[] weights = new float[count];
+        for (int i = 0; i < count; i++)
+            weights[i] = grid.containsKey(key) ? ((List<Double>) grid.get(key)).get(i).floatValue() : 1;
+        return weights;
+    }
+}
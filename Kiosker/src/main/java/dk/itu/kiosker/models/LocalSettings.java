@@ -1,54 +1,134 @@
 package dk.itu.kiosker.models;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
-import dk.itu.kiosker.utils.JsonFetcher;
 
 public class LocalSettings {
+    private static SettingsStore settingsStore;
+
     /**
      * This removes the safe settings from the device if there are any.
      * This gets called after a device reset.
      */
     public static void removeSafeSettings(KioskerActivity kioskerActivity) {
         Log.d(Constants.TAG, "Removing safe settings.");
-        SharedPreferences.Editor editor = kioskerActivity.getPreferences(Context.MODE_PRIVATE).edit();
-        editor.remove(Constants.SAFE_JSON);
-        editor.commit();
+        getSettingsStore(kioskerActivity).clear();
     }
 
-    public static void setSafeJson(KioskerActivity kioskerActivity, LinkedHashMap settings) {
-        String json = null;
+    public static void setSafeJson(KioskerActivity kioskerActivity, Map settings) {
         try {
-            JsonFetcher jsonFetcher = new JsonFetcher();
-            json = jsonFetcher.mapper.writeValueAsString(settings);
-        } catch (JsonProcessingException e) {
+            if (getSettingsStore(kioskerActivity).save(settings))
+                Log.d(Constants.TAG, "Saved a new version of the safe settings.");
+        } catch (IOException e) {
             CustomerErrorLogger.log("Error while saving safe settings.", e, kioskerActivity);
         }
-        SharedPreferences.Editor editor = kioskerActivity.getPreferences(Context.MODE_PRIVATE).edit();
-        editor.putString(Constants.SAFE_JSON, json);
-        editor.commit();
     }
 
-    public static LinkedHashMap getSafeJson(KioskerActivity kioskerActivity) {
+    public static KioskSettings getSafeJson(KioskerActivity kioskerActivity) {
+        try {
+            String json = getSettingsStore(kioskerActivity).loadJson();
+            if (json != null)
+                return KioskSettings.parse(json);
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while loading safe settings.", e, kioskerActivity);
+        }
+        return KioskSettings.EMPTY;
+    }
+
+    /**
+     * @return the stored json of the newest safe settings or an empty string, without parsing it.
+     */
+    public static String getSafeJsonText(KioskerActivity kioskerActivity) {
+        try {
+            String json = getSettingsStore(kioskerActivity).loadJson();
+            if (json != null)
+                return json;
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while loading safe settings.", e, kioskerActivity);
+        }
+        return "";
+    }
+
+    public static boolean hasSafeSettings(KioskerActivity kioskerActivity) {
+        try {
+            return !getSettingsStore(kioskerActivity).isEmpty();
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while reading the safe settings index.", e, kioskerActivity);
+            return false;
+        }
+    }
+
+    /**
+     * @return the stored safe settings versions, newest first.
+     */
+    public static List<SettingsStore.Version> getSafeVersions(Activity activity) {
+        try {
+            return getSettingsStore(activity).getVersions();
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while reading the safe settings index.", e, activity);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Makes a stored version the safe settings.
+     * The settings rolled back from are ignored until the server has different settings.
+     */
+    public static boolean rollback(KioskerActivity kioskerActivity, int version) {
+        try {
+            return getSettingsStore(kioskerActivity).rollback(version);
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while rolling back to safe settings version " + version + ".", e, kioskerActivity);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the settings are the ones that were rolled back from.
+     */
+    public static boolean isRejected(KioskerActivity kioskerActivity, KioskSettings settings) {
+        try {
+            return getSettingsStore(kioskerActivity).isRejected(settings.getValues());
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while reading the safe settings index.", e, kioskerActivity);
+            return false;
+        }
+    }
+
+    private static synchronized SettingsStore getSettingsStore(Activity activity) {
+        if (settingsStore == null) {
+            settingsStore = new SettingsStore(new File(activity.getFilesDir(), "settings"));
+            if (activity instanceof KioskerActivity)
+                migrateSafeJson((KioskerActivity) activity);
+        }
+        return settingsStore;
+    }
+
+    // Earlier versions kept a single copy of the safe settings in the preferences of the activity.
+    private static void migrateSafeJson(KioskerActivity kioskerActivity) {
         SharedPreferences prefs = kioskerActivity.getPreferences(Context.MODE_PRIVATE);
         String restoredJson = prefs.getString(Constants.SAFE_JSON, null);
-        if (restoredJson != null) {
-            try {
-                JsonFetcher jsonFetcher = new JsonFetcher();
-                return jsonFetcher.mapper.readValue(restoredJson, LinkedHashMap.class);
-            } catch (IOException e) {
-                CustomerErrorLogger.log("Error while loading safe settings.", e, kioskerActivity);
-            }
-        }
-        return new LinkedHashMap();
+        if (restoredJson == null)
+            return;
+        try {
+            if (settingsStore.isEmpty())
+                settingsStore.save(KioskSettings.parse(restoredJson).getValues());
+        } catch (IOException e) {
+            CustomerErrorLogger.log("Error while moving the safe settings to the settings store.", e, kioskerActivity);
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.remove(Constants.SAFE_JSON);
+        editor.commit();
     }
 }
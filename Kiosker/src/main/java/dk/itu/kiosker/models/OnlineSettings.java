@@ -3,53 +3,226 @@ package dk.itu.kiosker.models;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.InitialSetup;
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.utils.CustomerErrorLogger;
 import dk.itu.kiosker.utils.JsonFetcher;
+import dk.itu.kiosker.utils.KioskerSubscriber;
+import dk.itu.kiosker.utils.RetryPolicy;
 import retrofit.RetrofitError;
 import rx.Observable;
 import rx.Observer;
+import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.functions.FuncN;
 
 public class OnlineSettings {
-    private static LinkedHashMap currentSettings;
+    public static final String[] RETRY_SETTINGS_KEYS = {"retryBaseSecs", "retryMaxSecs", "circuitBreakerFailures", "circuitBreakerOpenMins"};
+    private static KioskSettings currentSettings;
+    // The endpoint and json paths of the settings that were last handed to the activity.
+    private static String appliedSettingsSource;
+    // The layers the last base settings declared, downloaded along with the base settings before they are known.
+    private static List<String> lastLayerPaths = new ArrayList<>();
+    private static final SettingsMerger settingsMerger = new SettingsMerger();
+    // Failed downloads are retried with a backoff, and not tried at all for a while when the settings server keeps failing.
+    private static KioskSettings retrySettings = KioskSettings.EMPTY;
+    private static String retryPolicyUrl = "";
+    private static RetryPolicy retryPolicy = newRetryPolicy();
+    private static Subscriber<Long> retrySubscriber;
 
-    public static void getSettings(KioskerActivity kioskerActivity) {
+    public static void getSettings(final KioskerActivity kioskerActivity) {
         Constants.JSON_BASE_URL = Constants.getString(kioskerActivity, Constants.KIOSKER_JSON_BASE_URL_ID);
+        cancelRetry();
+        if (!Constants.JSON_BASE_URL.equals(retryPolicyUrl)) {
+            // Another settings server has not failed yet.
+            retryPolicyUrl = Constants.JSON_BASE_URL;
+            retryPolicy = newRetryPolicy();
+        }
+        if (!Constants.JSON_BASE_URL.isEmpty() && !retryPolicy.allowRequest()) {
+            Log.d(Constants.TAG, "Not downloading settings while the settings server is failing. " + retryPolicy);
+            handleFailedDownload(kioskerActivity, "Settings server unavailable", true);
+            return;
+        }
+        String deviceId = Constants.getString(kioskerActivity, Constants.KIOSKER_DEVICE_ID);
+        final String baseJsonPath = Constants.BASE_SETTINGS + Constants.FILE_ENDING;
+        final String deviceJsonPath = deviceId + Constants.FILE_ENDING;
+        final boolean baseSettingsOnly = deviceId.isEmpty();
+        final boolean[] deviceSettingsFailed = {false};
+        final List<String> layerPaths = new ArrayList<>();
 
+        final JsonFetcher fetcher = new JsonFetcher();
+        Observable<List<LinkedHashMap>> baseSettings;
+        Observable<LinkedHashMap> deviceSettings;
         if (!Constants.JSON_BASE_URL.isEmpty()) {
-            JsonFetcher fetcher = new JsonFetcher();
-            fetcher.getObservableMap(Constants.BASE_SETTINGS + Constants.FILE_ENDING)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(baseSettingsObserver(kioskerActivity));
+            // All documents are requested at the same time, the device specific settings fall back to none on errors.
+            baseSettings = getLayeredSettings(fetcher, baseJsonPath, layerPaths);
+            deviceSettings = baseSettingsOnly
+                    ? Observable.from(new LinkedHashMap())
+                    : fetcher.getObservableMap(deviceJsonPath)
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .onErrorResumeNext(deviceSpecificSettingsErrorHandler(kioskerActivity, deviceSettingsFailed));
         } else {
-            LinkedHashMap emptyMap = new LinkedHashMap();
-            Observable.from(emptyMap)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(baseSettingsObserver(kioskerActivity));
+            List<LinkedHashMap> noSettings = new ArrayList<>();
+            noSettings.add(new LinkedHashMap());
+            baseSettings = Observable.just(noSettings);
+            deviceSettings = Observable.from(new LinkedHashMap());
         }
+
+        Observable.zip(baseSettings, deviceSettings, new Func2<List<LinkedHashMap>, LinkedHashMap, KioskSettings>() {
+            @Override
+            public KioskSettings call(List<LinkedHashMap> layers, LinkedHashMap device) {
+                // Combine the base settings and their layers with the device specific settings.
+                List<String> jsonPaths = getJsonPaths(baseJsonPath, layerPaths, baseSettingsOnly || deviceSettingsFailed[0] ? null : deviceJsonPath);
+                List<LinkedHashMap> settings = new ArrayList<>(layers);
+                if (jsonPaths.size() > settings.size())
+                    settings.add(device);
+                return new KioskSettings(settingsMerger.merge(fetcher, jsonPaths, settings));
+            }
+        })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(settingsObserver(kioskerActivity, fetcher, baseJsonPath, layerPaths, baseSettingsOnly ? null : deviceJsonPath, deviceSettingsFailed));
+    }
+
+    public static void handleRetrySettings(KioskSettings settings) {
+        retrySettings = settings;
+        retryPolicy.configure(settings.retryBaseSecs, settings.retryMaxSecs, settings.circuitBreakerFailures, settings.circuitBreakerOpenMins * 60);
+    }
+
+    /**
+     * @return the state of the retries against the settings server, shown along with the settings.
+     */
+    public static String getRetryStatus() {
+        return "Settings server " + retryPolicyUrl + ": " + retryPolicy;
+    }
+
+    private static RetryPolicy newRetryPolicy() {
+        return new RetryPolicy(retrySettings.retryBaseSecs, retrySettings.retryMaxSecs, retrySettings.circuitBreakerFailures, retrySettings.circuitBreakerOpenMins * 60);
+    }
+
+    /**
+     * Downloads the base settings and the settings layers they declare in the layers setting.
+     * The layers declared by the last base settings are requested at the same time as the base settings,
+     * any other layers as soon as the base settings arrive.
+     *
+     * @param layerPaths filled with the json paths of the layers.
+     * @return the base settings followed by the settings of each layer.
+     */
+    private static Observable<List<LinkedHashMap>> getLayeredSettings(final JsonFetcher fetcher, String baseJsonPath, final List<String> layerPaths) {
+        final Map<String, Observable<LinkedHashMap>> startedLayers = new HashMap<>();
+        for (String layerPath : lastLayerPaths)
+            startedLayers.put(layerPath, startLayer(fetcher, layerPath));
+
+        return fetcher.getObservableMap(baseJsonPath).flatMap(new Func1<LinkedHashMap, Observable<List<LinkedHashMap>>>() {
+            @Override
+            public Observable<List<LinkedHashMap>> call(LinkedHashMap base) {
+                layerPaths.addAll(getLayerPaths(base));
+                lastLayerPaths = new ArrayList<>(layerPaths);
+                List<Observable<LinkedHashMap>> layers = new ArrayList<>();
+                layers.add(Observable.from(base));
+                for (String layerPath : layerPaths)
+                    layers.add(startedLayers.containsKey(layerPath) ? startedLayers.get(layerPath) : fetcher.getObservableMap(layerPath));
+                return Observable.zip(layers, new FuncN<List<LinkedHashMap>>() {
+                    @Override
+                    public List<LinkedHashMap> call(Object... args) {
+                        List<LinkedHashMap> settings = new ArrayList<>();
+                        for (Object layer : args)
+                            settings.add((LinkedHashMap) layer);
+                        return settings;
+                    }
+                });
+            }
+        });
     }
 
-    // Observer we use to consume the base json settings.
-    private static Observer<LinkedHashMap> baseSettingsObserver(final KioskerActivity kioskerActivity) {
-        return new Observer<LinkedHashMap>() {
+    // Starts downloading a layer right away, whoever uses the layer gets the same result.
+    private static Observable<LinkedHashMap> startLayer(JsonFetcher fetcher, String layerPath) {
+        Observable<LinkedHashMap> layer = fetcher.getObservableMap(layerPath).cache();
+        layer.subscribe(new Subscriber<LinkedHashMap>() {
             @Override
             public void onCompleted() {
-                Log.d(Constants.TAG, "Finished getting base json settings.");
-                kioskerActivity.updateSubStatus("Finished downloading base settings.");
-                String device_id = Constants.getString(kioskerActivity, Constants.KIOSKER_DEVICE_ID);
-                if (!device_id.isEmpty()) {
-                    JsonFetcher jsonFetcher = new JsonFetcher();
-                    jsonFetcher.getObservableMap(device_id + Constants.FILE_ENDING)
-                            .observeOn(AndroidSchedulers.mainThread())
-                            .subscribe(deviceSpecificSettingsObserver(kioskerActivity));
-                } else
-                    kioskerActivity.handleSettings(currentSettings, true);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                // Reported by the settings observer if the layer is still declared.
+            }
+
+            @Override
+            public void onNext(LinkedHashMap settings) {
+            }
+        });
+        return layer;
+    }
+
+    private static List<String> getLayerPaths(LinkedHashMap base) {
+        List<String> layerPaths = new ArrayList<>();
+        if (base.containsKey("layers"))
+            for (String layer : (List<String>) base.get("layers"))
+                layerPaths.add(layer.endsWith(Constants.FILE_ENDING) ? layer : layer + Constants.FILE_ENDING);
+        return layerPaths;
+    }
+
+    // The json paths of all the settings documents in the order they apply.
+    private static List<String> getJsonPaths(String baseJsonPath, List<String> layerPaths, String deviceJsonPath) {
+        List<String> jsonPaths = new ArrayList<>();
+        jsonPaths.add(baseJsonPath);
+        jsonPaths.addAll(layerPaths);
+        if (deviceJsonPath != null)
+            jsonPaths.add(deviceJsonPath);
+        return jsonPaths;
+    }
+
+    /**
+     * Hands the downloaded settings to the activity.
+     * If the server reported every settings document as not modified and the activity
+     * is still showing the settings from the same documents nothing needs to be reapplied,
+     * unless panes were removed to save memory since.
+     * Settings that were rolled back from are replaced by the safe settings.
+     */
+    private static void handleSettings(KioskerActivity kioskerActivity, JsonFetcher fetcher, boolean baseSettings, String... jsonPaths) {
+        String settingsSource = fetcher.getEndpoint() + Arrays.toString(jsonPaths);
+        boolean degraded = kioskerActivity.settingsController != null && kioskerActivity.settingsController.isDegraded();
+        if (kioskerActivity.showingCurrentSettings && !degraded && fetcher.allNotModified(jsonPaths) && settingsSource.equals(appliedSettingsSource)) {
+            Log.d(Constants.TAG, "Settings have not changed, keeping the current setup.");
+            kioskerActivity.removeStatusTextViews();
+            return;
+        }
+        if (LocalSettings.isRejected(kioskerActivity, currentSettings)) {
+            Log.d(Constants.TAG, "The downloaded settings were rolled back from, using the safe settings instead.");
+            if (kioskerActivity.showingCurrentSettings)
+                kioskerActivity.removeStatusTextViews();
+            else
+                kioskerActivity.loadSafeSettings();
+            return;
+        }
+        appliedSettingsSource = settingsSource;
+        kioskerActivity.handleSettings(currentSettings, baseSettings);
+    }
+
+    // Observer we use to consume the combined json settings.
+    private static Observer<KioskSettings> settingsObserver(final KioskerActivity kioskerActivity, final JsonFetcher fetcher, final String baseJsonPath, final List<String> layerPaths, final String deviceJsonPath, final boolean[] deviceSettingsFailed) {
+        return new Observer<KioskSettings>() {
+            @Override
+            public void onCompleted() {
+                Log.d(Constants.TAG, "Finished getting json settings.");
+                retryPolicy.onSuccess();
+                if (!kioskerActivity.showingCurrentSettings)
+                    kioskerActivity.updateSubStatus("Finished downloading settings.");
+                List<String> jsonPaths = getJsonPaths(baseJsonPath, layerPaths, deviceSettingsFailed[0] ? null : deviceJsonPath);
+                handleSettings(kioskerActivity, fetcher, deviceJsonPath == null, jsonPaths.toArray(new String[jsonPaths.size()]));
             }
 
             @Override
@@ -60,7 +233,10 @@ public class OnlineSettings {
                     error = (RetrofitError) throwable;
                     if (error.getResponse() != null && error.getResponse().getReason() != null)
                         errorReason = error.getResponse().getReason();
-                }
+                    else if (error.getKind() == RetrofitError.Kind.NETWORK)
+                        errorReason = "No connection to the settings server";
+                } else if (throwable != null && throwable.getCause() instanceof JsonProcessingException)
+                    errorReason = ((JsonProcessingException) throwable.getCause()).getOriginalMessage();
 
                 if (error != null) {
                     CustomerErrorLogger.log("Error while getting base json settings because " + errorReason + ".", error, kioskerActivity);
@@ -69,63 +245,102 @@ public class OnlineSettings {
 
                 }
 
-
-                kioskerActivity.updateMainStatus("Error");
-                if (Constants.hasSafeSettings(kioskerActivity)) {
-                    kioskerActivity.updateSubStatus(errorReason + ", trying safe settings.");
-
-                    // Of there was an error getting the json we can load or last successful json
-                    Observable.timer(3, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
-                        @Override
-                        public void call(Long aLong) {
-                            kioskerActivity.cleanUpMainView();
-                            kioskerActivity.loadSafeSettings();
-                        }
-                    });
-                } else {
-                    kioskerActivity.updateSubStatus(errorReason + ", please retry.");
-                    Observable.timer(3, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
-                        @Override
-                        public void call(Long aLong) {
-                            InitialSetup.start(kioskerActivity);
-                        }
-                    });
-                }
+                boolean serverFailure = isServerFailure(error);
+                if (serverFailure)
+                    retryPolicy.onFailure();
+                handleFailedDownload(kioskerActivity, errorReason, serverFailure);
             }
 
             @Override
-            public void onNext(LinkedHashMap settings) {
-                // Set the current settings to be the downloaded base settings.
+            public void onNext(KioskSettings settings) {
                 currentSettings = settings;
             }
         };
     }
 
-    // Observer we use to consume the device specific json settings.
-    private static Observer<LinkedHashMap> deviceSpecificSettingsObserver(final KioskerActivity kioskerActivity) {
-        return new Observer<LinkedHashMap>() {
+    /**
+     * Keeps or loads the best settings there are when the settings could not be downloaded.
+     * Invalid or unreachable settings never replace the settings that are on screen.
+     *
+     * @param retry should the download be tried again when the retry policy allows it.
+     */
+    private static void handleFailedDownload(final KioskerActivity kioskerActivity, String errorReason, boolean retry) {
+        long retryDelayMillis = retryPolicy.getRetryDelayMillis();
+        if (retry)
+            scheduleRetry(kioskerActivity, retryDelayMillis);
+
+        if (kioskerActivity.showingCurrentSettings) {
+            Log.d(Constants.TAG, "Keeping the current setup because the new settings could not be used.");
+            return;
+        }
+
+        kioskerActivity.updateMainStatus("Error");
+        if (Constants.hasSafeSettings(kioskerActivity)) {
+            kioskerActivity.updateSubStatus(errorReason + ", trying safe settings.");
+
+            // Of there was an error getting the json we can load or last successful json
+            Observable.timer(3, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
+                @Override
+                public void call(Long aLong) {
+                    kioskerActivity.cleanUpMainView();
+                    kioskerActivity.loadSafeSettings();
+                }
+            });
+        } else if (retry) {
+            kioskerActivity.updateSubStatus(errorReason + ", retrying in " + retryDelayMillis / 1000 + " seconds.");
+            kioskerActivity.createSecretMenuButton();
+        } else {
+            kioskerActivity.updateSubStatus(errorReason + ", please retry.");
+            Observable.timer(3, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
+                @Override
+                public void call(Long aLong) {
+                    InitialSetup.start(kioskerActivity);
+                }
+            });
+        }
+    }
+
+    // Failures of the settings server or the connection to it are worth retrying, settings that are wrong are not.
+    private static boolean isServerFailure(RetrofitError error) {
+        if (error == null)
+            return false;
+        if (error.getResponse() == null)
+            return error.getKind() == RetrofitError.Kind.NETWORK;
+        int status = error.getResponse().getStatus();
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    private static void scheduleRetry(final KioskerActivity kioskerActivity, long delayMillis) {
+        cancelRetry();
+        Log.d(Constants.TAG, "Downloading settings again in " + delayMillis / 1000 + " seconds. " + retryPolicy);
+        retrySubscriber = new KioskerSubscriber("Error while retrying the settings download.", kioskerActivity) {
             @Override
-            public void onCompleted() {
-                Log.d(Constants.TAG, "Finished getting device specific json settings.");
-                kioskerActivity.updateSubStatus("Finished downloading device specific settings.");
-                kioskerActivity.handleSettings(currentSettings, false);
+            public void onNext(Long aLong) {
+                kioskerActivity.refreshDevice();
             }
+        };
+        Observable.timer(delayMillis, TimeUnit.MILLISECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(retrySubscriber);
+    }
 
+    private static void cancelRetry() {
+        if (retrySubscriber != null && !retrySubscriber.isUnsubscribed())
+            retrySubscriber.unsubscribe();
+    }
+
+    // Errors while getting the device specific settings are reported and the base settings are used on their own.
+    private static Func1<Throwable, Observable<LinkedHashMap>> deviceSpecificSettingsErrorHandler(final KioskerActivity kioskerActivity, final boolean[] deviceSettingsFailed) {
+        return new Func1<Throwable, Observable<LinkedHashMap>>() {
             @Override
-            public void onError(Throwable throwable) {
+            public Observable<LinkedHashMap> call(Throwable throwable) {
+                deviceSettingsFailed[0] = true;
                 if (throwable != null && throwable.getClass().equals(RetrofitError.class)) {
                     RetrofitError error = (RetrofitError) throwable;
-                    String errorReason = error.getResponse().getReason();
+                    String errorReason = error.getResponse() != null ? error.getResponse().getReason() : error.getMessage();
                     Log.e(Constants.TAG, "Error while getting device specific json settings because " + errorReason + ".", throwable);
                     Toast.makeText(kioskerActivity, "Error getting device specific json settings: " + errorReason, Toast.LENGTH_LONG).show();
-                    kioskerActivity.handleSettings(currentSettings, false);
-                }
-            }
-
-            @Override
-            public void onNext(LinkedHashMap settings) {
-                // Combine the base settings with the user specific settings.
-                currentSettings.putAll(settings);
+                } else
+                    Log.e(Constants.TAG, "Error while getting device specific json settings.", throwable);
+                return Observable.from(new LinkedHashMap());
             }
         };
     }
@@ -0,0 +1,210 @@
+package dk.itu.kiosker.models;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Keeps the preferences of the device in memory and in a single json file.
+ * Reads never touch the disk, and changes made close together are written to the file together
+ * in the background. Call {@link #flush()} where the app may stop so no change is lost.
+ */
+public class PreferenceStore {
+    private static final String FILE_NAME = "preferences.json";
+    private static final long WRITE_DELAY_MILLISECONDS = 2000;
+    private static PreferenceStore instance;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Object writeLock = new Object();
+    private final File file;
+    private final Map<String, Object> values;
+    private boolean dirty;
+    private boolean writeScheduled;
+
+    public static synchronized PreferenceStore getInstance(Context context) {
+        if (instance == null)
+            instance = new PreferenceStore(context.getApplicationContext());
+        return instance;
+    }
+
+    private PreferenceStore(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        values = file.exists() ? load() : migrate(context);
+    }
+
+    // A store of its own file, with nothing to migrate.
+    PreferenceStore(File file) {
+        this.file = file;
+        values = file.exists() ? load() : new LinkedHashMap<String, Object>();
+    }
+
+    public synchronized String getString(String key, String defaultValue) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    public synchronized boolean getBoolean(String key, boolean defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public synchronized float getFloat(String key, float defaultValue) {
+        // Floats are read back from the json file as doubles.
+        Object value = values.get(key);
+        return value instanceof Number ? ((Number) value).floatValue() : defaultValue;
+    }
+
+    /**
+     * @param value the value of the preference, null removes it like it does for shared preferences.
+     */
+    public void putString(String key, String value) {
+        put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        put(key, value);
+    }
+
+    private synchronized void put(String key, Object value) {
+        if (value == null ? !values.containsKey(key) : isSame(value, values.get(key)))
+            return;
+        if (value == null)
+            values.remove(key);
+        else
+            values.put(key, value);
+        dirty = true;
+        if (!writeScheduled) {
+            writeScheduled = true;
+            Observable.timer(WRITE_DELAY_MILLISECONDS, TimeUnit.MILLISECONDS, Schedulers.io()).subscribe(new Action1<Long>() {
+                @Override
+                public void call(Long aLong) {
+                    synchronized (PreferenceStore.this) {
+                        writeScheduled = false;
+                    }
+                    flush();
+                }
+            });
+        }
+    }
+
+    // Floats are read back from the json file as the shortest double that rounds to them, so they are compared as floats.
+    private static boolean isSame(Object value, Object stored) {
+        if (value instanceof Float && stored instanceof Number)
+            return (Float) value == ((Number) stored).floatValue();
+        return value.equals(stored);
+    }
+
+    /**
+     * Writes the changes that are waiting to be written right away.
+     */
+    public void flush() {
+        // Writes happen one at a time, so an older snapshot never replaces a newer one.
+        synchronized (writeLock) {
+            byte[] json;
+            synchronized (this) {
+                if (!dirty)
+                    return;
+                try {
+                    json = mapper.writeValueAsBytes(values);
+                } catch (IOException e) {
+                    Log.e(Constants.TAG, "Error while serializing the preferences.", e);
+                    return;
+                }
+                dirty = false;
+            }
+            try {
+                write(json);
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "Error while writing the preferences.", e);
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> load() {
+        try {
+            return mapper.readValue(file, LinkedHashMap.class);
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Error while reading the preferences, starting over.", e);
+            return new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Moves the preferences from the shared preferences files they were kept in before, one file per key.
+     * The old files are only deleted once the preferences are written to the store.
+     */
+    private Map<String, Object> migrate(Context context) {
+        Map<String, Object> migrated = new LinkedHashMap<>();
+        List<File> migratedFiles = new ArrayList<>();
+        File[] files = new File(context.getApplicationInfo().dataDir, "shared_prefs").listFiles();
+        if (files == null)
+            return migrated;
+        for (File prefsFile : files) {
+            String name = prefsFile.getName();
+            if (!name.endsWith(".xml"))
+                continue;
+            name = name.substring(0, name.length() - ".xml".length());
+            Map<String, ?> all = context.getSharedPreferences(name, Context.MODE_PRIVATE).getAll();
+            if (all.size() == 1 && all.containsKey(name)) {
+                migrated.put(name, all.get(name));
+                migratedFiles.add(prefsFile);
+            }
+        }
+        if (migrated.isEmpty())
+            return migrated;
+
+        try {
+            write(mapper.writeValueAsBytes(migrated));
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Error while migrating the preferences.", e);
+            return migrated;
+        }
+        for (File prefsFile : migratedFiles) {
+            String name = prefsFile.getName().substring(0, prefsFile.getName().length() - ".xml".length());
+            SharedPreferences.Editor editor = context.getSharedPreferences(name, Context.MODE_PRIVATE).edit();
+            editor.clear();
+            editor.commit();
+            prefsFile.delete();
+        }
+        Log.d(Constants.TAG, "Migrated " + migrated.size() + " preferences.");
+        return migrated;
+    }
+
+    // Readers either see the old or the new file, never a partially written one.
+    private void write(byte[] json) throws IOException {
+        File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(json);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package dk.itu.kiosker.models;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import dk.itu.kiosker.utils.JsonFetcher;
+
+/**
+ * Merges settings layers in order, a setting in a later layer replaces the same setting in the earlier ones.
+ * The merge of every prefix of the layers is kept, so when only the last layers changed
+ * the unchanged layers in front of them are not merged again.
+ */
+class SettingsMerger {
+    private String lastEndpoint;
+    private List<String> lastJsonPaths = new ArrayList<>();
+    // The merge of the first i + 1 layers of the last merge.
+    private List<LinkedHashMap> lastMerges = new ArrayList<>();
+
+    /**
+     * @param fetcher   the fetcher that downloaded the layers, used to find the layers that did not change.
+     * @param jsonPaths the paths of the layers in the order they apply.
+     * @param layers    the settings of the layers.
+     * @return the merged settings.
+     */
+    synchronized LinkedHashMap merge(JsonFetcher fetcher, List<String> jsonPaths, List<LinkedHashMap> layers) {
+        int unchanged = 0;
+        if (fetcher.getEndpoint().equals(lastEndpoint)) {
+            while (unchanged < jsonPaths.size() && unchanged < lastJsonPaths.size()
+                    && jsonPaths.get(unchanged).equals(lastJsonPaths.get(unchanged))
+                    && fetcher.allNotModified(jsonPaths.get(unchanged)))
+                unchanged++;
+        }
+
+        List<LinkedHashMap> merges = new ArrayList<>(lastMerges.subList(0, unchanged));
+        LinkedHashMap merged = unchanged > 0 ? merges.get(unchanged - 1) : new LinkedHashMap();
+        for (int i = unchanged; i < layers.size(); i++) {
+            merged = new LinkedHashMap(merged);
+            merged.putAll(layers.get(i));
+            merges.add(merged);
+        }
+
+        lastEndpoint = fetcher.getEndpoint();
+        lastJsonPaths = new ArrayList<>(jsonPaths);
+        lastMerges = merges;
+        return new LinkedHashMap(merged);
+    }
+}
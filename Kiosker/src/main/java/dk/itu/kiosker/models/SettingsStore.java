@@ -0,0 +1,231 @@
+package dk.itu.kiosker.models;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last applied settings versions on disk.
+ * Every version is its own json file, written to a temporary file and renamed into place,
+ * and a small index lists the versions newest first along with the SHA-1 hash of their content.
+ * The index is kept in memory so questions about the stored versions never parse a settings document.
+ */
+public class SettingsStore {
+    // How many settings versions are kept for rolling back.
+    public static final int MAX_VERSIONS = 5;
+    private static final String INDEX_FILE = "index.json";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final File directory;
+    private Index index;
+
+    public SettingsStore(File directory) {
+        this.directory = directory;
+    }
+
+    public synchronized boolean isEmpty() throws IOException {
+        return getIndex().versions.isEmpty();
+    }
+
+    /**
+     * @return the stored versions, newest first.
+     */
+    public synchronized List<Version> getVersions() throws IOException {
+        return new ArrayList<>(getIndex().versions);
+    }
+
+    /**
+     * Stores the settings as the newest version.
+     * Settings identical to an already stored version only move that version to the front.
+     *
+     * @return true if a new version was written.
+     */
+    public synchronized boolean save(Map settings) throws IOException {
+        byte[] json = mapper.writeValueAsBytes(settings);
+        String hash = hash(json);
+        Index index = getIndex();
+        Version existing = findByHash(hash);
+        if (existing != null) {
+            if (index.versions.get(0) != existing) {
+                index.versions.remove(existing);
+                index.versions.add(0, existing);
+                writeIndex();
+            }
+            return false;
+        }
+
+        // Only settings that are not stored mean a new configuration was pushed. Saving a stored version,
+        // as applying the version rolled back to does, must not forget the rejection.
+        if (!hash.equals(index.rejectedHash))
+            index.rejectedHash = null;
+        Version version = new Version();
+        version.version = index.nextVersion++;
+        version.hash = hash;
+        version.savedAt = System.currentTimeMillis();
+        writeAtomically(getFile(version), json);
+        index.versions.add(0, version);
+        while (index.versions.size() > MAX_VERSIONS) {
+            Version removed = index.versions.remove(index.versions.size() - 1);
+            getFile(removed).delete();
+        }
+        writeIndex();
+        return true;
+    }
+
+    /**
+     * @return the json of the newest version whose content matches its hash, or null if there is none.
+     */
+    public synchronized String loadJson() throws IOException {
+        for (Version version : getIndex().versions) {
+            String json = loadJson(version);
+            if (json != null)
+                return json;
+        }
+        return null;
+    }
+
+    /**
+     * @return the json of the version or null if it is missing or corrupt.
+     */
+    public synchronized String loadJson(Version version) throws IOException {
+        File file = getFile(version);
+        if (!file.exists())
+            return null;
+        byte[] json = readFile(file);
+        return hash(json).equals(version.hash) ? new String(json, "UTF-8") : null;
+    }
+
+    /**
+     * Makes an older version the newest one.
+     * The settings that were newest are remembered as rejected, so they are not applied again
+     * until different settings have been downloaded.
+     *
+     * @return false if the version is not stored.
+     */
+    public synchronized boolean rollback(int versionNumber) throws IOException {
+        Index index = getIndex();
+        for (Version version : index.versions) {
+            if (version.version == versionNumber) {
+                Version newest = index.versions.get(0);
+                if (newest != version) {
+                    index.rejectedHash = newest.hash;
+                    index.versions.remove(version);
+                    index.versions.add(0, version);
+                    writeIndex();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if these settings were rolled back from and nothing newer has been stored since.
+     */
+    public synchronized boolean isRejected(Map settings) throws IOException {
+        String rejectedHash = getIndex().rejectedHash;
+        return rejectedHash != null && rejectedHash.equals(hash(mapper.writeValueAsBytes(settings)));
+    }
+
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        index = new Index();
+    }
+
+    private Index getIndex() throws IOException {
+        if (index == null) {
+            File file = new File(directory, INDEX_FILE);
+            index = file.exists() ? mapper.readValue(file, Index.class) : new Index();
+        }
+        return index;
+    }
+
+    private void writeIndex() throws IOException {
+        writeAtomically(new File(directory, INDEX_FILE), mapper.writeValueAsBytes(index));
+    }
+
+    private Version findByHash(String hash) {
+        for (Version version : index.versions)
+            if (version.hash.equals(hash))
+                return version;
+        return null;
+    }
+
+    private File getFile(Version version) {
+        return new File(directory, "settings-" + version.version + Constants.FILE_ENDING);
+    }
+
+    // Readers either see the old or the new file, never a partially written one.
+    private void writeAtomically(File file, byte[] data) throws IOException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+            Formatter formatter = new Formatter();
+            for (byte b : crypt.digest(data))
+                formatter.format("%02x", b);
+            String result = formatter.toString();
+            formatter.close();
+            return result;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // A stored settings version.
+    public static class Version {
+        public int version;
+        public String hash;
+        public long savedAt;
+    }
+
+    // The content of the index file.
+    public static class Index {
+        public int nextVersion = 1;
+        public String rejectedHash;
+        public List<Version> versions = new ArrayList<>();
+    }
+}
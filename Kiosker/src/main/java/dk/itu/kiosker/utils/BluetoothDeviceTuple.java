@@ -11,14 +11,27 @@ import dk.itu.kiosker.models.Constants;
 public class BluetoothDeviceTuple {
     public final String name;
     public final String address;
+    // The signal strength in dBm and when the device was last seen by a discovery, 0 for paired devices.
+    public final int rssi;
+    public final long lastSeen;
+
     public BluetoothDeviceTuple(String name, String address) {
+        this(name, address, 0, 0);
+    }
+
+    public BluetoothDeviceTuple(String name, String address, int rssi, long lastSeen) {
         this.name = name;
         this.address = address;
+        this.rssi = rssi;
+        this.lastSeen = lastSeen;
     }
 
     @Override
     public String toString() {
         // Return a json object string
-        return "{\"name\": \"" + name + "\",\"address\": \"" + address + "\"}";
+        String json = "{\"name\": " + JSONObject.quote(name) + ",\"address\": " + JSONObject.quote(address);
+        if (lastSeen > 0)
+            json += ",\"rssi\": " + rssi + ",\"lastSeen\": " + lastSeen;
+        return json + "}";
     }
 }
\ No newline at end of file
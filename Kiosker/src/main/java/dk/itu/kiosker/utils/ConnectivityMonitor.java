@@ -0,0 +1,126 @@
+package dk.itu.kiosker.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dk.itu.kiosker.models.Constants;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+import rx.subjects.BehaviorSubject;
+
+/**
+ * Keeps track of whether the device can reach the internet, so callers never wait on the network to find out.
+ * Connectivity changes are picked up from the ConnectivityManager broadcasts, and whether the internet is
+ * actually reachable is checked in the background at most once per time to live.
+ */
+public class ConnectivityMonitor {
+    private static final String PROBE_URL = "http://www.google.com";
+    private static final int PROBE_TIMEOUT_MILLISECONDS = 30 * 1000;
+    private static final long REACHABILITY_TTL_MILLISECONDS = 60 * 1000;
+    private static ConnectivityMonitor instance;
+
+    private final Context context;
+    private final BehaviorSubject<Boolean> state;
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile boolean connected;
+    // Until the first check is done a connected network is assumed to reach the internet.
+    private volatile boolean reachable;
+    private volatile long checkedAt;
+
+    public static synchronized ConnectivityMonitor getInstance(Context context) {
+        if (instance == null)
+            instance = new ConnectivityMonitor(context.getApplicationContext());
+        return instance;
+    }
+
+    private ConnectivityMonitor(Context context) {
+        this.context = context;
+        connected = readConnected();
+        reachable = connected;
+        state = BehaviorSubject.create(connected);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onConnectivityChanged();
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        probe();
+    }
+
+    /**
+     * @return the last known state without blocking, a state older than its time to live is checked again in the background.
+     */
+    public boolean isNetworkAvailable() {
+        if (System.currentTimeMillis() - checkedAt > REACHABILITY_TTL_MILLISECONDS)
+            probe();
+        return connected && reachable;
+    }
+
+    /**
+     * @return an observable emitting the current state and every change to it.
+     */
+    public Observable<Boolean> getState() {
+        return state.distinctUntilChanged();
+    }
+
+    private void onConnectivityChanged() {
+        connected = readConnected();
+        Log.d(Constants.TAG, "Connectivity changed, connected: " + connected);
+        if (connected)
+            probe();
+        else {
+            reachable = false;
+            checkedAt = System.currentTimeMillis();
+            publish();
+        }
+    }
+
+    private boolean readConnected() {
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo netInfo = connMgr.getActiveNetworkInfo();
+        return netInfo != null && netInfo.isConnected();
+    }
+
+    // Checks that the internet can be reached, unless a check is already running.
+    private void probe() {
+        if (!connected || !probing.compareAndSet(false, true))
+            return;
+        Observable.from(1L).subscribeOn(Schedulers.io()).subscribe(new Action1<Long>() {
+            @Override
+            public void call(Long aLong) {
+                boolean result = false;
+                try {
+                    HttpURLConnection http = (HttpURLConnection) new URL(PROBE_URL).openConnection();
+                    http.setRequestProperty("User-Agent", "Android Application");
+                    http.setRequestProperty("Connection", "close");
+                    http.setConnectTimeout(PROBE_TIMEOUT_MILLISECONDS);
+                    http.setReadTimeout(PROBE_TIMEOUT_MILLISECONDS);
+                    http.connect();
+                    result = http.getResponseCode() == 200;
+                    http.disconnect();
+                } catch (IOException e) {
+                    Log.d(Constants.TAG, "Error while checking if network is available.", e);
+                }
+                reachable = result;
+                checkedAt = System.currentTimeMillis();
+                probing.set(false);
+                publish();
+            }
+        });
+    }
+
+    private synchronized void publish() {
+        state.onNext(connected && reachable);
+    }
+}
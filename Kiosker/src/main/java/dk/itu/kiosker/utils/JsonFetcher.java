@@ -2,39 +2,214 @@ package dk.itu.kiosker.utils;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 
 import dk.itu.kiosker.models.Constants;
 import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
 import retrofit.converter.JacksonConverter;
 import retrofit.http.GET;
+import retrofit.http.Headers;
 import retrofit.http.Path;
 import rx.Observable;
+import rx.functions.Func1;
 
 public class JsonFetcher {
+    private static final int HTTP_IM_USED = 226;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final String JSON_PATCH = "json-patch";
+    // The last successful download of every settings document, keyed by its full url.
+    private static final Map<String, CachedJson> cachedJson = new ConcurrentHashMap<>();
+
     // Jackson mapper used to parse the json.
     public ObjectMapper mapper = new ObjectMapper(new JsonFactory()).configure(JsonParser.Feature.ALLOW_COMMENTS, true);
     // The rest adapter that will call the server.
 
-    String endpoint = !Constants.JSON_BASE_URL.isEmpty() ? Constants.JSON_BASE_URL : "http://google.dk";
+    String endpoint;
 
-    private RestAdapter restAdapter = new RestAdapter.Builder()
-            .setEndpoint(endpoint)
-            .setConverter(new JacksonConverter(mapper))
-            .build();
+    private RestAdapter restAdapter;
     // The manager that ties everything together and lets us call our interface method.
-    private JsonControllerService jsonController = restAdapter.create(JsonControllerService.class);
+    private JsonControllerService jsonController;
+    // The json paths this fetcher got a 304 Not Modified response for.
+    private final Set<String> notModifiedPaths = new HashSet<>();
+
+    public JsonFetcher() {
+        this(!Constants.JSON_BASE_URL.isEmpty() ? Constants.JSON_BASE_URL : "http://google.dk");
+    }
+
+    JsonFetcher(String endpoint) {
+        this.endpoint = endpoint;
+        restAdapter = new RestAdapter.Builder()
+                .setEndpoint(endpoint)
+                .setConverter(new JacksonConverter(mapper))
+                .build();
+        jsonController = restAdapter.create(JsonControllerService.class);
+    }
+
+    /**
+     * Get the json observable from our server.
+     * The request is conditional on the validators of the last download of the same path,
+     * if the server answers 304 Not Modified the last downloaded settings are returned instead.
+     * A server answering 226 IM Used sends a json patch from the last downloaded document to the current one,
+     * which is applied to a copy of the last document. If the patch fails the whole document is downloaded again.
+     */
+    public Observable<LinkedHashMap> getObservableMap(final String jsonPath) {
+        final String key = endpoint + "/" + jsonPath;
+        final CachedJson cached = cachedJson.get(key);
+        Observable<Response> response = cached == null
+                ? jsonController.getJson(jsonPath, null, null, null)
+                : jsonController.getJson(jsonPath, cached.eTag, cached.lastModified, cached.eTag != null ? JSON_PATCH : null);
+        return response
+                .flatMap(new Func1<Response, Observable<LinkedHashMap>>() {
+                    @Override
+                    public Observable<LinkedHashMap> call(Response response) {
+                        if (cached == null || response.getStatus() != HTTP_IM_USED)
+                            return Observable.from(store(key, readBody(response), response));
+                        try {
+                            return Observable.from(store(key, applyPatch(cached.json, readBody(response), response), response));
+                        } catch (IOException | RuntimeException e) {
+                            return getFullDocument(jsonPath, key);
+                        }
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<? extends LinkedHashMap>>() {
+                    @Override
+                    public Observable<? extends LinkedHashMap> call(Throwable throwable) {
+                        if (cached != null && isNotModified(throwable)) {
+                            synchronized (notModifiedPaths) {
+                                notModifiedPaths.add(jsonPath);
+                            }
+                            return Observable.from(new LinkedHashMap(cached.settings));
+                        }
+                        return Observable.error(throwable);
+                    }
+                });
+    }
+
+    /**
+     * @param jsonPaths the json paths to check.
+     * @return true if the server reported all of the paths as not modified since the last download.
+     */
+    public boolean allNotModified(String... jsonPaths) {
+        synchronized (notModifiedPaths) {
+            for (String jsonPath : jsonPaths)
+                if (!notModifiedPaths.contains(jsonPath))
+                    return false;
+            return true;
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // Downloads the document without validators, so the server cannot answer with a patch or not modified.
+    private Observable<LinkedHashMap> getFullDocument(String jsonPath, final String key) {
+        return jsonController.getJson(jsonPath, null, null, null)
+                .map(new Func1<Response, LinkedHashMap>() {
+                    @Override
+                    public LinkedHashMap call(Response response) {
+                        return store(key, readBody(response), response);
+                    }
+                });
+    }
+
+    // Checks the document and remembers it with its validators, returning a copy of the settings.
+    private LinkedHashMap store(String key, String json, Response response) {
+        LinkedHashMap settings;
+        try {
+            settings = KioskSettingsParser.parse(json);
+        } catch (IOException e) {
+            throw new RuntimeException("Error while parsing " + response.getUrl(), e);
+        }
+        cachedJson.put(key, new CachedJson(json, settings, getHeader(response, "ETag"), getHeader(response, "Last-Modified")));
+        return new LinkedHashMap(settings);
+    }
+
+    /**
+     * @return the last document with the json patch in the response applied.
+     * @throws IllegalArgumentException if the response is not a json patch or does not apply to the document.
+     */
+    private String applyPatch(String json, String patch, Response response) throws IOException {
+        String instanceManipulation = getHeader(response, "IM");
+        if (instanceManipulation == null || !instanceManipulation.trim().equalsIgnoreCase(JSON_PATCH))
+            throw new IllegalArgumentException("Unsupported instance manipulation " + instanceManipulation);
+        JsonNode patched = JsonPatch.apply(mapper.readTree(json), mapper.readTree(patch));
+        return mapper.writeValueAsString(patched);
+    }
+
+    // Requesting gzip explicitly turns off the transparent decompression of the http client, so it is done here.
+    private static String readBody(Response response) {
+        try {
+            InputStream in = response.getBody().in();
+            try {
+                String encoding = getHeader(response, "Content-Encoding");
+                if (encoding != null && encoding.trim().equalsIgnoreCase("gzip"))
+                    in = new GZIPInputStream(in);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+                return out.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while reading " + response.getUrl(), e);
+        }
+    }
+
+    private static boolean isNotModified(Throwable throwable) {
+        if (throwable instanceof RetrofitError) {
+            Response response = ((RetrofitError) throwable).getResponse();
+            return response != null && response.getStatus() == HTTP_NOT_MODIFIED;
+        }
+        return false;
+    }
+
+    private static String getHeader(Response response, String name) {
+        for (Header header : response.getHeaders())
+            if (name.equalsIgnoreCase(header.getName()))
+                return header.getValue();
+        return null;
+    }
+
+    // The raw json, settings and validators of a downloaded json document, the raw json is what patches apply to.
+    private static class CachedJson {
+        final String json;
+        final LinkedHashMap settings;
+        final String eTag;
+        final String lastModified;
 
-    // Get the json observable from our server.
-    public Observable<LinkedHashMap> getObservableMap(String jsonPath) {
-        return jsonController.getJson(jsonPath);
+        CachedJson(String json, LinkedHashMap settings, String eTag, String lastModified) {
+            this.json = json;
+            this.settings = settings;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
     }
 
     // Interface for the retrofit rest client.
     public interface JsonControllerService {
         @GET("/{json}")
-        Observable<LinkedHashMap> getJson(@Path("json") String jsonPath);
+        @Headers("Accept-Encoding: gzip")
+        Observable<Response> getJson(@Path("json") String jsonPath,
+                                     @retrofit.http.Header("If-None-Match") String eTag,
+                                     @retrofit.http.Header("If-Modified-Since") String lastModified,
+                                     @retrofit.http.Header("A-IM") String acceptedInstanceManipulations);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package dk.itu.kiosker.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies RFC 6902 JSON Patch documents.
+ * The document that is patched is never changed, the patch is applied to a copy of it.
+ */
+public class JsonPatch {
+    /**
+     * @param document the document to patch.
+     * @param patch    an array of patch operations.
+     * @return the patched copy of the document.
+     * @throws IllegalArgumentException if the patch is malformed or does not apply to the document.
+     */
+    public static JsonNode apply(JsonNode document, JsonNode patch) {
+        if (!patch.isArray())
+            throw new IllegalArgumentException("A json patch must be an array of operations");
+        // The root is held in a wrapper so operations on the whole document work like any other.
+        ArrayNode root = JsonNodeFactory.instance.arrayNode();
+        root.add(document.deepCopy());
+        for (JsonNode operation : patch) {
+            String op = getText(operation, "op");
+            List<String> path = parsePointer(getText(operation, "path"));
+            switch (op) {
+                case "add":
+                    add(root, path, getValue(operation));
+                    break;
+                case "remove":
+                    remove(root, path);
+                    break;
+                case "replace":
+                    remove(root, path);
+                    add(root, path, getValue(operation));
+                    break;
+                case "move": {
+                    List<String> from = parsePointer(getText(operation, "from"));
+                    if (path.size() > from.size() && path.subList(0, from.size()).equals(from))
+                        throw new IllegalArgumentException("Cannot move " + from + " into itself");
+                    add(root, path, remove(root, from));
+                    break;
+                }
+                case "copy":
+                    add(root, path, get(root, parsePointer(getText(operation, "from"))).deepCopy());
+                    break;
+                case "test":
+                    if (!get(root, path).equals(getValue(operation)))
+                        throw new IllegalArgumentException("Test failed for " + getText(operation, "path"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown json patch operation " + op);
+            }
+        }
+        if (root.size() == 0)
+            throw new IllegalArgumentException("A json patch cannot remove the whole document");
+        return root.get(0);
+    }
+
+    private static String getText(JsonNode operation, String field) {
+        JsonNode value = operation.get(field);
+        if (value == null || !value.isTextual())
+            throw new IllegalArgumentException("Json patch operation without " + field + ": " + operation);
+        return value.asText();
+    }
+
+    private static JsonNode getValue(JsonNode operation) {
+        JsonNode value = operation.get("value");
+        if (value == null)
+            throw new IllegalArgumentException("Json patch operation without value: " + operation);
+        return value.deepCopy();
+    }
+
+    // Splits a json pointer like /sites/0/url into its unescaped reference tokens, prefixed with the wrapper index.
+    private static List<String> parsePointer(String pointer) {
+        List<String> tokens = new ArrayList<>();
+        tokens.add("0");
+        if (pointer.isEmpty())
+            return tokens;
+        if (!pointer.startsWith("/"))
+            throw new IllegalArgumentException("Invalid json pointer " + pointer);
+        for (String token : pointer.substring(1).split("/", -1))
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        return tokens;
+    }
+
+    private static JsonNode get(JsonNode root, List<String> path) {
+        JsonNode node = root;
+        for (String token : path) {
+            node = node.isArray() ? node.get(getIndex(node, token, false)) : node.get(token);
+            if (node == null)
+                throw new IllegalArgumentException("No value at " + path);
+        }
+        return node;
+    }
+
+    private static void add(JsonNode root, List<String> path, JsonNode value) {
+        JsonNode parent = get(root, path.subList(0, path.size() - 1));
+        String token = path.get(path.size() - 1);
+        if (parent.isArray())
+            ((ArrayNode) parent).insert(getIndex(parent, token, true), value);
+        else if (parent.isObject())
+            ((ObjectNode) parent).set(token, value);
+        else
+            throw new IllegalArgumentException("Cannot add to a value at " + path);
+    }
+
+    private static JsonNode remove(JsonNode root, List<String> path) {
+        JsonNode parent = get(root, path.subList(0, path.size() - 1));
+        String token = path.get(path.size() - 1);
+        JsonNode removed = null;
+        if (parent.isArray())
+            removed = ((ArrayNode) parent).remove(getIndex(parent, token, false));
+        else if (parent.isObject())
+            removed = ((ObjectNode) parent).remove(token);
+        if (removed == null)
+            throw new IllegalArgumentException("No value to remove at " + path);
+        return removed;
+    }
+
+    private static int getIndex(JsonNode array, String token, boolean adding) {
+        if (adding && token.equals("-"))
+            return array.size();
+        int index;
+        try {
+            index = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid array index " + token);
+        }
+        int max = adding ? array.size() : array.size() - 1;
+        if (index < 0 || index > max || (token.length() > 1 && token.startsWith("0")))
+            throw new IllegalArgumentException("Array index out of bounds " + token);
+        return index;
+    }
+}
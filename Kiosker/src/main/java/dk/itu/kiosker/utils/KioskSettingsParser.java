@@ -0,0 +1,336 @@
+package dk.itu.kiosker.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Streaming parser for a settings json document.
+ * Every known setting is checked to have the right type while it is read,
+ * so a malformed document fails here instead of in the middle of applying it.
+ */
+public class KioskSettingsParser {
+    private enum Type {INTEGER, BOOLEAN, STRING, STRING_LIST, TIME, WEB_PAGES, GRID}
+
+    private static final HashMap<String, Type> types = new HashMap<>();
+
+    static {
+        types.put("home", Type.WEB_PAGES);
+        types.put("sites", Type.WEB_PAGES);
+        types.put("screensavers", Type.WEB_PAGES);
+        types.put("layout", Type.INTEGER);
+        types.put("grid", Type.GRID);
+        types.put("screenSavePeriodMins", Type.INTEGER);
+        types.put("screenSaveLengthMins", Type.INTEGER);
+        types.put("idlePeriodMins", Type.INTEGER);
+        types.put("resetToHomeMins", Type.INTEGER);
+        types.put("reloadPeriodMins", Type.INTEGER);
+        types.put("autoCycleSecondaryPeriodMins", Type.INTEGER);
+        types.put("errorReloadMins", Type.INTEGER);
+        types.put("errorRetryBaseSecs", Type.INTEGER);
+        types.put("errorRefreshFailures", Type.INTEGER);
+        types.put("offlineCacheMB", Type.INTEGER);
+        types.put("homeCacheMins", Type.INTEGER);
+        types.put("sitesCacheMins", Type.INTEGER);
+        types.put("screensaverCacheMins", Type.INTEGER);
+        types.put("recycleAfterHours", Type.INTEGER);
+        types.put("recycleAfterNavigations", Type.INTEGER);
+        types.put("recycleAboveMemoryMB", Type.INTEGER);
+        types.put("volume", Type.INTEGER);
+        types.put("brightness", Type.INTEGER);
+        types.put("dimmedBrightness", Type.INTEGER);
+        types.put("allowSwitching", Type.BOOLEAN);
+        types.put("autoCycleSecondary", Type.BOOLEAN);
+        types.put("addSensorBridge", Type.BOOLEAN);
+        types.put("errorShowLastCopy", Type.BOOLEAN);
+        types.put("allowHome", Type.BOOLEAN);
+        types.put("mute", Type.BOOLEAN);
+        types.put("manualWifi", Type.BOOLEAN);
+        types.put("wifiSSID", Type.STRING);
+        types.put("homeReloadMode", Type.STRING);
+        types.put("sitesReloadMode", Type.STRING);
+        types.put("settingsEventsUrl", Type.STRING);
+        types.put("filterRulesUrl", Type.STRING);
+        types.put("retryBaseSecs", Type.INTEGER);
+        types.put("retryMaxSecs", Type.INTEGER);
+        types.put("circuitBreakerFailures", Type.INTEGER);
+        types.put("circuitBreakerOpenMins", Type.INTEGER);
+        types.put("layers", Type.STRING_LIST);
+        types.put("passwordHash", Type.STRING);
+        types.put("passwordSalt", Type.STRING);
+        types.put("masterPasswordHash", Type.STRING);
+        types.put("masterPasswordSalt", Type.STRING);
+        types.put("standbyStartTime", Type.TIME);
+        types.put("standbyStopTime", Type.TIME);
+        types.put("quietHoursStartTime", Type.TIME);
+        types.put("quietHoursStopTime", Type.TIME);
+    }
+
+    private static final JsonFactory jsonFactory = new JsonFactory().configure(JsonParser.Feature.ALLOW_COMMENTS, true);
+
+    public static LinkedHashMap parse(InputStream in) throws IOException {
+        JsonParser parser = jsonFactory.createParser(in);
+        try {
+            return parse(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public static LinkedHashMap parse(String json) throws IOException {
+        JsonParser parser = jsonFactory.createParser(json);
+        try {
+            return parse(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * @param parser a parser positioned before or at the start of the settings object.
+     * @return the settings with known settings checked, web pages as maps with a url and a title
+     * and unknown settings kept as plain json values.
+     * @throws JsonParseException if the document is not an object or a setting has the wrong type.
+     */
+    public static LinkedHashMap parse(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken() == null ? parser.nextToken() : parser.getCurrentToken();
+        if (token != JsonToken.START_OBJECT)
+            throw new JsonParseException("Settings must be a json object", parser.getCurrentLocation());
+
+        LinkedHashMap settings = new LinkedHashMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL)
+                continue;
+            Type type = types.get(key);
+            settings.put(key, type == null ? readValue(parser) : readSetting(parser, key, type));
+        }
+        return settings;
+    }
+
+    private static Object readSetting(JsonParser parser, String key, Type type) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        switch (type) {
+            case INTEGER:
+                if (token != JsonToken.VALUE_NUMBER_INT)
+                    throw error(parser, key, "an integer");
+                if (parser.getNumberType() != JsonParser.NumberType.INT)
+                    throw error(parser, key, "an integer between " + Integer.MIN_VALUE + " and " + Integer.MAX_VALUE);
+                return parser.getIntValue();
+            case BOOLEAN:
+                if (token != JsonToken.VALUE_TRUE && token != JsonToken.VALUE_FALSE)
+                    throw error(parser, key, "true or false");
+                return parser.getBooleanValue();
+            case STRING:
+                if (token != JsonToken.VALUE_STRING)
+                    throw error(parser, key, "a string");
+                return parser.getText();
+            case STRING_LIST:
+                if (token != JsonToken.START_ARRAY)
+                    throw error(parser, key, "a list of strings");
+                ArrayList<String> strings = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.getCurrentToken() != JsonToken.VALUE_STRING)
+                        throw error(parser, key, "a list of strings");
+                    strings.add(parser.getText());
+                }
+                return strings;
+            case TIME:
+                if (token != JsonToken.VALUE_STRING)
+                    throw error(parser, key, "a time like \"18.00\"");
+                String time = parser.getText();
+                try {
+                    new Time(time);
+                } catch (NumberFormatException e) {
+                    throw error(parser, key, "a time like \"18.00\"");
+                }
+                return time;
+            case GRID:
+                return readGrid(parser, key);
+            default:
+                return readWebPages(parser, key);
+        }
+    }
+
+    private static ArrayList<LinkedHashMap> readWebPages(JsonParser parser, String key) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY)
+            throw error(parser, key, "a list of web pages");
+        ArrayList<LinkedHashMap> webPages = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+                throw error(parser, key, "web pages like {\"url\": \"http://...\", \"title\": \"...\"}");
+            LinkedHashMap webPage = new LinkedHashMap();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL)
+                    continue;
+                if (field.equals("url") || field.equals("title")) {
+                    if (token != JsonToken.VALUE_STRING)
+                        throw error(parser, key + "." + field, "a string");
+                    webPage.put(field, parser.getText());
+                } else
+                    webPage.put(field, readValue(parser));
+            }
+            if (!webPage.containsKey("url"))
+                throw error(parser, key, "a url for every web page");
+            if (!webPage.containsKey("title"))
+                webPage.put("title", webPage.get("url"));
+            webPages.add(webPage);
+        }
+        return webPages;
+    }
+
+    /**
+     * Reads a grid like {"rows": 2, "columns": 2, "rowWeights": [2, 1], "panes": [{"row": 0, "column": 0, "columnSpan": 2, "pages": [...]}, ...]}.
+     * The weights are optional and default to equal rows and columns, as do the spans of a pane to 1.
+     * A pane may set its own "cacheMins" and "reloadMode", which otherwise are those of home for the first pane
+     * and those of sites for the others. Panes may not overlap.
+     */
+    private static LinkedHashMap readGrid(JsonParser parser, String key) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+            throw error(parser, key, "a grid like {\"rows\": 1, \"columns\": 2, \"panes\": [...]}");
+        LinkedHashMap grid = new LinkedHashMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_NULL)
+                continue;
+            switch (field) {
+                case "rows":
+                case "columns":
+                    grid.put(field, readSetting(parser, key + "." + field, Type.INTEGER));
+                    break;
+                case "rowWeights":
+                case "columnWeights":
+                    grid.put(field, readWeights(parser, key + "." + field));
+                    break;
+                case "panes":
+                    grid.put(field, readPanes(parser, key + ".panes"));
+                    break;
+                default:
+                    grid.put(field, readValue(parser));
+            }
+        }
+        int rows = grid.containsKey("rows") ? (int) grid.get("rows") : 0;
+        int columns = grid.containsKey("columns") ? (int) grid.get("columns") : 0;
+        if (rows <= 0 || columns <= 0)
+            throw error(parser, key, "a positive number of rows and columns");
+        if (grid.containsKey("rowWeights") && ((ArrayList) grid.get("rowWeights")).size() != rows)
+            throw error(parser, key + ".rowWeights", "a weight for every row");
+        if (grid.containsKey("columnWeights") && ((ArrayList) grid.get("columnWeights")).size() != columns)
+            throw error(parser, key + ".columnWeights", "a weight for every column");
+        if (!grid.containsKey("panes") || ((ArrayList) grid.get("panes")).isEmpty())
+            throw error(parser, key, "a list of at least one pane");
+        // The cells taken by the panes read so far.
+        boolean[][] taken = new boolean[rows][columns];
+        for (LinkedHashMap pane : (ArrayList<LinkedHashMap>) grid.get("panes")) {
+            int row = (int) pane.get("row");
+            int column = (int) pane.get("column");
+            if (row + (int) pane.get("rowSpan") > rows || column + (int) pane.get("columnSpan") > columns)
+                throw error(parser, key + ".panes", "panes inside the " + rows + " by " + columns + " grid");
+            for (int r = row; r < row + (int) pane.get("rowSpan"); r++)
+                for (int c = column; c < column + (int) pane.get("columnSpan"); c++) {
+                    if (taken[r][c])
+                        throw error(parser, key + ".panes", "panes that do not overlap");
+                    taken[r][c] = true;
+                }
+        }
+        return grid;
+    }
+
+    private static ArrayList<Double> readWeights(JsonParser parser, String key) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY)
+            throw error(parser, key, "a list of positive numbers");
+        ArrayList<Double> weights = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            JsonToken token = parser.getCurrentToken();
+            if ((token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) || parser.getDoubleValue() <= 0)
+                throw error(parser, key, "a list of positive numbers");
+            weights.add(parser.getDoubleValue());
+        }
+        return weights;
+    }
+
+    // The spans of a pane are always set, so the settings using the grid need not default them.
+    private static ArrayList<LinkedHashMap> readPanes(JsonParser parser, String key) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY)
+            throw error(parser, key, "a list of panes");
+        ArrayList<LinkedHashMap> panes = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+                throw error(parser, key, "panes like {\"row\": 0, \"column\": 0, \"pages\": [...]}");
+            LinkedHashMap pane = new LinkedHashMap();
+            pane.put("row", 0);
+            pane.put("column", 0);
+            pane.put("rowSpan", 1);
+            pane.put("columnSpan", 1);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_NULL)
+                    continue;
+                if (field.equals("pages"))
+                    pane.put(field, readWebPages(parser, key + ".pages"));
+                else if (field.equals("cacheMins")) {
+                    int cacheMins = (int) readSetting(parser, key + ".cacheMins", Type.INTEGER);
+                    if (cacheMins < 0)
+                        throw error(parser, key + ".cacheMins", "0 or more minutes");
+                    pane.put(field, cacheMins);
+                } else if (field.equals("reloadMode"))
+                    pane.put(field, readSetting(parser, key + ".reloadMode", Type.STRING));
+                else if (pane.containsKey(field)) {
+                    int value = (int) readSetting(parser, key + "." + field, Type.INTEGER);
+                    if (value < (field.endsWith("Span") ? 1 : 0))
+                        throw error(parser, key + "." + field, field.endsWith("Span") ? "a positive integer" : "a row or column of the grid");
+                    pane.put(field, value);
+                } else
+                    pane.put(field, readValue(parser));
+            }
+            if (!pane.containsKey("pages") || ((ArrayList) pane.get("pages")).isEmpty())
+                throw error(parser, key, "pages for every pane");
+            panes.add(pane);
+        }
+        return panes;
+    }
+
+    // Reads the json value at the current token as maps, lists, strings, numbers and booleans.
+    private static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+                LinkedHashMap map = new LinkedHashMap();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    map.put(field, readValue(parser));
+                }
+                return map;
+            case START_ARRAY:
+                ArrayList list = new ArrayList();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                    list.add(readValue(parser));
+                return list;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            default:
+                return null;
+        }
+    }
+
+    private static JsonParseException error(JsonParser parser, String key, String expected) {
+        return new JsonParseException("Expected " + expected + " for " + key, parser.getCurrentLocation());
+    }
+}
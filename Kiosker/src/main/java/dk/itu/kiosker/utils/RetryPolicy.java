@@ -0,0 +1,96 @@
+package dk.itu.kiosker.utils;
+
+import java.util.Random;
+
+/**
+ * Decides when to retry a failing server.
+ * Retries wait an exponentially growing delay with full jitter, so devices that failed together do not retry together.
+ * After enough failures in a row the circuit opens and no requests are made until the open period has passed,
+ * then a single request is let through to test the server.
+ */
+public class RetryPolicy {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final Random random = new Random();
+    private long baseDelayMillis;
+    private long maxDelayMillis;
+    private int failureThreshold;
+    private long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    /**
+     * @param baseDelaySeconds the longest delay after the first failure.
+     * @param maxDelaySeconds  the longest delay after any number of failures.
+     * @param failureThreshold the failures in a row that open the circuit.
+     * @param openSeconds      how long the circuit stays open.
+     */
+    public RetryPolicy(long baseDelaySeconds, long maxDelaySeconds, int failureThreshold, long openSeconds) {
+        configure(baseDelaySeconds, maxDelaySeconds, failureThreshold, openSeconds);
+    }
+
+    public synchronized void configure(long baseDelaySeconds, long maxDelaySeconds, int failureThreshold, long openSeconds) {
+        this.baseDelayMillis = Math.max(baseDelaySeconds, 1) * 1000;
+        this.maxDelayMillis = Math.max(maxDelaySeconds * 1000, baseDelayMillis);
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openMillis = Math.max(openSeconds, 0) * 1000;
+    }
+
+    /**
+     * @return true if a request may be made now, false while the circuit is open.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis)
+            state = State.HALF_OPEN;
+        return state != State.OPEN;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return how long to wait before the next attempt, at least until the circuit lets requests through again.
+     */
+    public synchronized long getRetryDelayMillis() {
+        long ceiling = maxDelayMillis;
+        // Doubling the base delay for every failure, stopping before it overflows or passes the maximum.
+        if (consecutiveFailures < 31)
+            ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.max(consecutiveFailures - 1, 0));
+        long delay = (long) (random.nextDouble() * ceiling);
+        if (state == State.OPEN)
+            delay = Math.max(delay, openMillis - (System.currentTimeMillis() - openedAt));
+        return Math.max(delay, 1000);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        switch (state) {
+            case OPEN:
+                long remainingSeconds = Math.max(openMillis - (System.currentTimeMillis() - openedAt), 0) / 1000;
+                return "Circuit open after " + consecutiveFailures + " failures, testing again in " + remainingSeconds + " seconds.";
+            case HALF_OPEN:
+                return "Circuit half open, testing the server.";
+            default:
+                return consecutiveFailures == 0 ? "Circuit closed." : "Circuit closed, " + consecutiveFailures + " failures in a row.";
+        }
+    }
+}
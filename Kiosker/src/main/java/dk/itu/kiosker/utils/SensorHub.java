@@ -0,0 +1,237 @@
+package dk.itu.kiosker.utils;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.itu.kiosker.models.Constants;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Shares the sensors and the bluetooth adapter of the device between the web views.
+ * A sensor is registered when its first subscriber arrives, at the fastest delay any subscriber asked for,
+ * and unregistered when its last subscriber leaves. The same goes for the bluetooth receiver.
+ * The paired bluetooth devices are looked up once and kept until the bond state of a device changes.
+ * Events are passed to the subscribers on the main thread.
+ */
+public class SensorHub {
+    private static SensorHub instance;
+
+    private final Context context;
+    private final SensorManager sensorManager;
+    private final Map<Integer, SensorChannel> sensorChannels = new HashMap<>();
+    private final List<Action1<BluetoothDeviceTuple>> bluetoothSubscribers = new ArrayList<>();
+    private BluetoothAdapter bluetoothAdapter;
+    private ArrayList<BluetoothDeviceTuple> pairedDevices;
+    private boolean bondReceiverRegistered;
+
+    public static synchronized SensorHub getInstance(Context context) {
+        if (instance == null)
+            instance = new SensorHub(context.getApplicationContext());
+        return instance;
+    }
+
+    private SensorHub(Context context) {
+        this.context = context;
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    }
+
+    /**
+     * @param sensorType  one of the Sensor.TYPE_ constants.
+     * @param sensorDelay one of the SensorManager.SENSOR_DELAY_ constants.
+     * @param onChanged   called with the values of every event of the sensor.
+     * @return the subscription to unsubscribe when the events are no longer needed.
+     */
+    public synchronized Subscription subscribe(int sensorType, int sensorDelay, Action1<float[]> onChanged) {
+        final SensorChannel channel;
+        if (sensorChannels.containsKey(sensorType))
+            channel = sensorChannels.get(sensorType);
+        else {
+            Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+            if (sensor == null) {
+                Log.d(Constants.TAG, "No sensor of type " + sensorType);
+                return Subscriptions.empty();
+            }
+            channel = new SensorChannel(sensor);
+            sensorChannels.put(sensorType, channel);
+        }
+        final SensorSubscriber subscriber = new SensorSubscriber(sensorDelay, onChanged);
+        channel.add(subscriber);
+        return Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                synchronized (SensorHub.this) {
+                    channel.remove(subscriber);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param onFound called with every device found by a bluetooth discovery.
+     * @return the subscription to unsubscribe when the devices are no longer needed.
+     */
+    public synchronized Subscription subscribeBluetooth(final Action1<BluetoothDeviceTuple> onFound) {
+        if (getBluetoothAdapter() == null)
+            return Subscriptions.empty();
+        if (bluetoothSubscribers.isEmpty())
+            context.registerReceiver(bluetoothReceiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
+        bluetoothSubscribers.add(onFound);
+        return Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                synchronized (SensorHub.this) {
+                    if (bluetoothSubscribers.remove(onFound) && bluetoothSubscribers.isEmpty()) {
+                        context.unregisterReceiver(bluetoothReceiver);
+                        if (bluetoothAdapter.isDiscovering())
+                            bluetoothAdapter.cancelDiscovery();
+                    }
+                }
+            }
+        });
+    }
+
+    public synchronized void startBluetoothDiscovery() {
+        BluetoothAdapter adapter = getBluetoothAdapter();
+        if (adapter == null)
+            return;
+        if (!adapter.isEnabled()) adapter.enable();
+        if (adapter.isDiscovering())
+            adapter.cancelDiscovery();
+        adapter.startDiscovery();
+    }
+
+    public synchronized ArrayList<BluetoothDeviceTuple> getPairedDevices() {
+        BluetoothAdapter adapter = getBluetoothAdapter();
+        if (adapter == null)
+            return new ArrayList<>();
+        if (pairedDevices == null) {
+            if (!adapter.isEnabled()) adapter.enable();
+            pairedDevices = new ArrayList<>();
+            for (BluetoothDevice device : adapter.getBondedDevices())
+                pairedDevices.add(new BluetoothDeviceTuple(device.getName(), device.getAddress()));
+            // Only registered once, it stays registered for as long as the app runs.
+            if (!bondReceiverRegistered) {
+                IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+                filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+                context.registerReceiver(bondReceiver, filter);
+                bondReceiverRegistered = true;
+            }
+        }
+        return new ArrayList<>(pairedDevices);
+    }
+
+    private BluetoothAdapter getBluetoothAdapter() {
+        if (bluetoothAdapter == null)
+            bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter == null)
+            Log.d(Constants.TAG, "No Bluetooth Radio");
+        return bluetoothAdapter;
+    }
+
+    private final BroadcastReceiver bluetoothReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!BluetoothDevice.ACTION_FOUND.equals(intent.getAction()))
+                return;
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+            BluetoothDeviceTuple deviceInfo = new BluetoothDeviceTuple(device.getName(), device.getAddress(), rssi, System.currentTimeMillis());
+            List<Action1<BluetoothDeviceTuple>> subscribers;
+            synchronized (SensorHub.this) {
+                subscribers = new ArrayList<>(bluetoothSubscribers);
+            }
+            for (Action1<BluetoothDeviceTuple> subscriber : subscribers)
+                subscriber.call(deviceInfo);
+        }
+    };
+
+    private final BroadcastReceiver bondReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            synchronized (SensorHub.this) {
+                pairedDevices = null;
+            }
+        }
+    };
+
+    private static class SensorSubscriber {
+        final int sensorDelay;
+        final Action1<float[]> onChanged;
+
+        SensorSubscriber(int sensorDelay, Action1<float[]> onChanged) {
+            this.sensorDelay = sensorDelay;
+            this.onChanged = onChanged;
+        }
+    }
+
+    /**
+     * The subscribers of one sensor, registered with the sensor manager while there are any.
+     */
+    private class SensorChannel implements SensorEventListener {
+        private final Sensor sensor;
+        private final List<SensorSubscriber> subscribers = new ArrayList<>();
+        private int registeredDelay = -1;
+
+        SensorChannel(Sensor sensor) {
+            this.sensor = sensor;
+        }
+
+        void add(SensorSubscriber subscriber) {
+            subscribers.add(subscriber);
+            register();
+        }
+
+        void remove(SensorSubscriber subscriber) {
+            if (subscribers.remove(subscriber))
+                register();
+        }
+
+        // Registers at the fastest delay of the subscribers, the delay constants are smaller for faster updates.
+        private void register() {
+            int delay = -1;
+            for (SensorSubscriber subscriber : subscribers)
+                delay = delay < 0 ? subscriber.sensorDelay : Math.min(delay, subscriber.sensorDelay);
+            if (delay == registeredDelay)
+                return;
+            if (registeredDelay >= 0)
+                sensorManager.unregisterListener(this);
+            registeredDelay = delay;
+            if (delay >= 0) {
+                Log.d(Constants.TAG, "Registering " + sensor.getName() + " with delay " + delay);
+                sensorManager.registerListener(this, sensor, delay);
+            } else
+                Log.d(Constants.TAG, "Unregistered " + sensor.getName());
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            List<SensorSubscriber> current;
+            synchronized (SensorHub.this) {
+                current = new ArrayList<>(subscribers);
+            }
+            for (SensorSubscriber subscriber : current)
+                subscriber.onChanged.call(event.values);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    }
+}
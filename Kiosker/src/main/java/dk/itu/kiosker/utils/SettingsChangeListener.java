@@ -0,0 +1,169 @@
+package dk.itu.kiosker.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import dk.itu.kiosker.activities.KioskerActivity;
+import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
+import rx.Observable;
+import rx.Subscriber;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+
+/**
+ * Listens for "settings changed" signals sent as server-sent events from the url in the settingsEventsUrl setting.
+ * The data of an event is the version of the settings on the server, whenever it differs from
+ * the last version the device heard about the settings are downloaded again.
+ * Lost connections are reopened with an exponential backoff.
+ */
+public class SettingsChangeListener {
+    public static final String[] SETTINGS_KEYS = {"settingsEventsUrl"};
+    private static final long MIN_RECONNECT_SECONDS = 5;
+    private static final long MAX_RECONNECT_SECONDS = 10 * 60;
+    // The server is expected to send a comment line now and then, a silent connection is reopened.
+    private static final int READ_TIMEOUT_MILLISECONDS = 5 * 60 * 1000;
+    // A stream closed sooner than this without any events counts as a failed connection.
+    private static final long HEALTHY_CONNECTION_MILLISECONDS = 30 * 1000;
+    // How long until a change that could not be refreshed is tried again.
+    private static final long RETRY_CHANGE_SECONDS = 60;
+
+    private final KioskerActivity kioskerActivity;
+    private final ArrayList<Subscriber> subscribers;
+    private final Func0<Boolean> onSettingsChanged;
+    private final Random random = new Random();
+    private String url = "";
+    private SettingsEventStream eventStream;
+    private String lastVersion;
+    private long reconnectSeconds = MIN_RECONNECT_SECONDS;
+    private Subscriber<String> eventSubscriber;
+    private Subscriber<Long> reconnectSubscriber;
+    private Subscriber<Long> retryChangeSubscriber;
+
+    /**
+     * @param onSettingsChanged called on the main thread when the settings on the server changed, returns
+     *                          false if the settings could not be refreshed now, the change is then tried again later.
+     */
+    public SettingsChangeListener(KioskerActivity kioskerActivity, ArrayList<Subscriber> subscribers, Func0<Boolean> onSettingsChanged) {
+        this.kioskerActivity = kioskerActivity;
+        this.subscribers = subscribers;
+        this.onSettingsChanged = onSettingsChanged;
+    }
+
+    public void handleSettingsChangeSettings(KioskSettings settings) {
+        stop();
+        url = getUrl(settings.settingsEventsUrl);
+        reconnectSeconds = MIN_RECONNECT_SECONDS;
+        if (!url.isEmpty()) {
+            // The same stream is kept for the same url, so the server is still told the last event seen.
+            if (eventStream == null || !eventStream.getUrl().equals(url))
+                eventStream = new SettingsEventStream(url, READ_TIMEOUT_MILLISECONDS);
+            Log.d(Constants.TAG, "Listening for settings changes at " + url);
+            connect();
+        }
+    }
+
+    public void stop() {
+        if (eventSubscriber != null && !eventSubscriber.isUnsubscribed())
+            eventSubscriber.unsubscribe();
+        if (reconnectSubscriber != null && !reconnectSubscriber.isUnsubscribed())
+            reconnectSubscriber.unsubscribe();
+        cancelRetryChange();
+        subscribers.remove(eventSubscriber);
+        subscribers.remove(reconnectSubscriber);
+    }
+
+    // Relative urls are resolved against the base url of the json settings.
+    private static String getUrl(String settingsEventsUrl) {
+        if (settingsEventsUrl.isEmpty() || settingsEventsUrl.startsWith("http://") || settingsEventsUrl.startsWith("https://"))
+            return settingsEventsUrl;
+        return Constants.JSON_BASE_URL + "/" + settingsEventsUrl;
+    }
+
+    private void connect() {
+        final long connectedAt = System.currentTimeMillis();
+        eventSubscriber = new Subscriber<String>() {
+            private boolean receivedEvent;
+
+            @Override
+            public void onCompleted() {
+                subscribers.remove(this);
+                // Long polling servers close the stream after an event or a timeout, so reconnect right away.
+                if (receivedEvent || System.currentTimeMillis() - connectedAt > HEALTHY_CONNECTION_MILLISECONDS) {
+                    reconnectSeconds = MIN_RECONNECT_SECONDS;
+                    connect();
+                } else
+                    scheduleReconnect(null);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                subscribers.remove(this);
+                scheduleReconnect(e);
+            }
+
+            @Override
+            public void onNext(String version) {
+                receivedEvent = true;
+                reconnectSeconds = MIN_RECONNECT_SECONDS;
+                handleVersion(version);
+            }
+        };
+        subscribers.add(eventSubscriber);
+        eventStream.getEvents()
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(eventSubscriber);
+    }
+
+    private void scheduleReconnect(Throwable e) {
+        // Half of the delay is random so a restarted server is not hit by every device at once.
+        long delaySeconds = reconnectSeconds / 2 + (long) (random.nextDouble() * (reconnectSeconds / 2 + 1));
+        reconnectSeconds = Math.min(reconnectSeconds * 2, MAX_RECONNECT_SECONDS);
+        Log.d(Constants.TAG, "Lost the settings events connection, reconnecting in " + delaySeconds + " seconds.", e);
+        reconnectSubscriber = new KioskerSubscriber("Error while reconnecting to the settings events.", kioskerActivity) {
+            @Override
+            public void onNext(Long aLong) {
+                subscribers.remove(reconnectSubscriber);
+                connect();
+            }
+        };
+        subscribers.add(reconnectSubscriber);
+        Observable.timer(delaySeconds, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(reconnectSubscriber);
+    }
+
+    // The version is only recorded as handled once the settings were refreshed, or will be.
+    private void handleVersion(final String version) {
+        cancelRetryChange();
+        if (version.equals(lastVersion))
+            return;
+        // The first version is the one the current settings were downloaded from.
+        if (lastVersion != null) {
+            Log.d(Constants.TAG, "Settings changed to version " + version + ".");
+            if (!onSettingsChanged.call()) {
+                Log.d(Constants.TAG, "Could not refresh the settings now, trying again in " + RETRY_CHANGE_SECONDS + " seconds.");
+                retryChangeSubscriber = new KioskerSubscriber("Error while retrying a settings change.", kioskerActivity) {
+                    @Override
+                    public void onNext(Long aLong) {
+                        subscribers.remove(retryChangeSubscriber);
+                        handleVersion(version);
+                    }
+                };
+                subscribers.add(retryChangeSubscriber);
+                Observable.timer(RETRY_CHANGE_SECONDS, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(retryChangeSubscriber);
+                return;
+            }
+        }
+        lastVersion = version;
+    }
+
+    private void cancelRetryChange() {
+        if (retryChangeSubscriber != null && !retryChangeSubscriber.isUnsubscribed())
+            retryChangeSubscriber.unsubscribe();
+        subscribers.remove(retryChangeSubscriber);
+    }
+}
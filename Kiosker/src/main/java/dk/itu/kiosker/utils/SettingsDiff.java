@@ -0,0 +1,40 @@
+package dk.itu.kiosker.utils;
+
+import java.util.Map;
+
+/**
+ * Compares newly downloaded settings with the settings that were last applied,
+ * so that only the controllers whose settings changed need to be reconfigured.
+ */
+public class SettingsDiff {
+    private final Map oldSettings;
+    private final Map newSettings;
+
+    /**
+     * @param oldSettings the settings that were last applied or null if nothing is applied,
+     *                    in which case every key counts as changed.
+     * @param newSettings the settings that are about to be applied.
+     */
+    public SettingsDiff(Map oldSettings, Map newSettings) {
+        this.oldSettings = oldSettings;
+        this.newSettings = newSettings;
+    }
+
+    /**
+     * @param keys the settings keys to compare.
+     * @return true if any of the keys was added, removed or got a different value.
+     */
+    public boolean changed(String... keys) {
+        if (oldSettings == null)
+            return true;
+        for (String key : keys) {
+            if (oldSettings.containsKey(key) != newSettings.containsKey(key))
+                return true;
+            Object oldValue = oldSettings.get(key);
+            Object newValue = newSettings.get(key);
+            if (oldValue == null ? newValue != null : !oldValue.equals(newValue))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package dk.itu.kiosker.utils;
+
+import com.github.kevinsawicki.http.HttpRequest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Reads the server-sent events of the settings events url.
+ * Only events without a name or named "settings" are emitted, and the id of the last event is sent
+ * when connecting again so the server can tell what the device missed.
+ */
+public class SettingsEventStream {
+    private final String url;
+    private final int readTimeoutMilliseconds;
+    private volatile String lastEventId;
+
+    public SettingsEventStream(String url, int readTimeoutMilliseconds) {
+        this.url = url;
+        this.readTimeoutMilliseconds = readTimeoutMilliseconds;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * @return an observable connecting on subscribe, emitting the data of every event in the stream
+     * and completing when the server closes it.
+     */
+    public Observable<String> getEvents() {
+        return Observable.create(new Observable.OnSubscribe<String>() {
+            @Override
+            public void call(Subscriber<? super String> subscriber) {
+                final HttpRequest request = HttpRequest.get(url)
+                        .accept("text/event-stream")
+                        .readTimeout(readTimeoutMilliseconds);
+                if (lastEventId != null)
+                    request.header("Last-Event-ID", lastEventId);
+                // Unsubscribing closes the connection, which ends the blocking read below.
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        request.disconnect();
+                    }
+                }));
+                try {
+                    if (!request.ok())
+                        throw new IOException("Settings events returned " + request.code() + " " + request.message());
+                    BufferedReader reader = request.bufferedReader();
+                    String event = "";
+                    String data = null;
+                    String line;
+                    while (!subscriber.isUnsubscribed() && (line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            // A blank line dispatches the event.
+                            if (data != null && (event.isEmpty() || event.equals("settings")))
+                                subscriber.onNext(data);
+                            event = "";
+                            data = null;
+                        } else if (line.startsWith("event:"))
+                            event = line.substring(6).trim();
+                        else if (line.startsWith("data:"))
+                            data = (data == null ? "" : data + "\n") + line.substring(5).trim();
+                        else if (line.startsWith("id:"))
+                            lastEventId = line.substring(3).trim();
+                        // Comment lines starting with ':' only keep the connection alive.
+                    }
+                    subscriber.onCompleted();
+                } catch (HttpRequest.HttpRequestException | IOException e) {
+                    if (!subscriber.isUnsubscribed())
+                        subscriber.onError(e);
+                }
+            }
+        });
+    }
+}
@@ -6,17 +6,18 @@ import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
 import android.provider.Settings;
 
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.models.WifiCredentials;
 import rx.Observable;
 import rx.Subscriber;
 
 public class WifiController {
+    public static final String[] SETTINGS_KEYS = {"manualWifi", "wifiSSID"};
     private final KioskerActivity kioskerActivity;
     private Subscriber<Long> wifiConnectSubscriber;
 
@@ -24,10 +25,12 @@ public class WifiController {
         this.kioskerActivity = kioskerActivity;
     }
 
-    public void handleWifiSettings(LinkedHashMap settings) {
-        if (SettingsExtractor.getBoolean(settings, "manualWifi")) {
+    public void handleWifiSettings(KioskSettings settings) {
+        if (wifiConnectSubscriber != null && !wifiConnectSubscriber.isUnsubscribed())
+            wifiConnectSubscriber.unsubscribe();
+        if (settings.manualWifi) {
             Constants.setBoolean(kioskerActivity, true, Constants.KIOSKER_MANUAL_WIFI);
-            String SSID = SettingsExtractor.getString(settings, "wifiSSID");
+            String SSID = settings.wifiSSID;
             Constants.setString(kioskerActivity, SSID, Constants.KIOSKER_SSID_ID);
             if (!SSID.isEmpty())
                 Observable.timer(5, TimeUnit.MINUTES).repeat().subscribe(getWifiConnectSubscriber(SSID));
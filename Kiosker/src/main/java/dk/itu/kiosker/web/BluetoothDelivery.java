@@ -0,0 +1,77 @@
+package dk.itu.kiosker.web;
+
+import android.webkit.WebView;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dk.itu.kiosker.utils.BluetoothDeviceTuple;
+import rx.Observable;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+
+/**
+ * Collects the devices found by bluetooth discoveries and sends them to the page in batches.
+ * A device reported again before the batch is sent only keeps its latest signal strength and time,
+ * so a venue full of beacons costs one javascript call per batch interval.
+ * The page gets the batch in bluetoothSensorBatchUpdate(devices) if it has that function,
+ * otherwise every device of the batch is passed to bluetoothSensorUpdate(device).
+ */
+public class BluetoothDelivery {
+    public static final long DEFAULT_BATCH_MILLISECONDS = 1000;
+
+    private final Map<String, BluetoothDeviceTuple> pending = new LinkedHashMap<>();
+    private WebView view;
+    private volatile long batchMillis = DEFAULT_BATCH_MILLISECONDS;
+    private Subscription scheduledDelivery;
+
+    public synchronized void setView(WebView view) {
+        this.view = view;
+    }
+
+    /**
+     * @param batchMillis how long found devices are collected before they are sent, 0 or less for the default.
+     */
+    public void setBatchMillis(long batchMillis) {
+        this.batchMillis = batchMillis <= 0 ? DEFAULT_BATCH_MILLISECONDS : batchMillis;
+    }
+
+    public synchronized void offer(BluetoothDeviceTuple device) {
+        // Removed first so the map keeps the devices in the order they were last seen.
+        pending.remove(device.address);
+        pending.put(device.address, device);
+        if (scheduledDelivery != null && !scheduledDelivery.isUnsubscribed())
+            return;
+        scheduledDelivery = Observable.timer(batchMillis, TimeUnit.MILLISECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
+            @Override
+            public void call(Long aLong) {
+                deliver();
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (scheduledDelivery != null)
+            scheduledDelivery.unsubscribe();
+        pending.clear();
+    }
+
+    private synchronized void deliver() {
+        if (pending.isEmpty() || view == null)
+            return;
+        StringBuilder devices = new StringBuilder("[");
+        for (BluetoothDeviceTuple device : pending.values()) {
+            if (devices.length() > 1)
+                devices.append(',');
+            devices.append(device);
+        }
+        devices.append(']');
+        pending.clear();
+        view.evaluateJavascript("(function(devices) {"
+                + "if (typeof bluetoothSensorBatchUpdate === 'function') bluetoothSensorBatchUpdate(devices);"
+                + "else devices.forEach(function(device) { bluetoothSensorUpdate(device); });"
+                + "})(" + devices + ")", null);
+    }
+}
@@ -0,0 +1,189 @@
+package dk.itu.kiosker.web;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Block and allow rules compiled into a trie of host labels, matched from the top level domain down,
+ * so a url is matched with one map lookup per label of its host no matter how many rules there are.
+ * A rule for a host also matches its subdomains, and can be limited to the paths starting with a prefix.
+ * Allow rules win over block rules.
+ * <p/>
+ * A rules file has one rule per line, in a subset of the adblock syntax most lists are published in:
+ * <pre>
+ * ! comment
+ * ads.example.com              block the host and its subdomains
+ * ||tracker.example.net^       the same in adblock syntax
+ * example.org/analytics/       block the paths of the host starting with the prefix
+ * 0.0.0.0 ads.example.com      hosts file entries
+ * &#64;&#64;||cdn.example.com^       allow the host even if a broader rule blocks it
+ * </pre>
+ * Rules with wildcards are skipped, and rule options after a '$' are ignored.
+ */
+public class HostMatcher {
+    private final Node root = new Node();
+    private int ruleCount;
+
+    /**
+     * @param rules a reader of a rules file, closed when the rules are read.
+     */
+    public static HostMatcher compile(Reader rules) throws IOException {
+        HostMatcher matcher = new HostMatcher();
+        BufferedReader reader = new BufferedReader(rules);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null)
+                matcher.addRule(line);
+        } finally {
+            reader.close();
+        }
+        return matcher;
+    }
+
+    /**
+     * @return true if the rule could be used.
+     */
+    public boolean addRule(String rule) {
+        rule = rule.trim();
+        if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("#") || rule.startsWith("["))
+            return false;
+        boolean allow = rule.startsWith("@@");
+        if (allow)
+            rule = rule.substring(2);
+        if (rule.startsWith("0.0.0.0 ") || rule.startsWith("127.0.0.1 "))
+            rule = rule.substring(rule.indexOf(' ')).trim();
+        int options = rule.indexOf('$');
+        if (options >= 0)
+            rule = rule.substring(0, options);
+        if (rule.startsWith("||"))
+            rule = rule.substring(2);
+        else if (rule.startsWith("|"))
+            rule = rule.substring(1);
+        int scheme = rule.indexOf("://");
+        if (scheme >= 0)
+            rule = rule.substring(scheme + 3);
+        while (rule.endsWith("^") || rule.endsWith("|"))
+            rule = rule.substring(0, rule.length() - 1);
+        if (rule.isEmpty() || rule.indexOf('*') >= 0 || rule.indexOf(' ') >= 0 || rule.startsWith("/"))
+            return false;
+
+        int pathStart = rule.indexOf('/');
+        String host = (pathStart < 0 ? rule : rule.substring(0, pathStart)).toLowerCase();
+        String path = pathStart < 0 ? "" : rule.substring(pathStart);
+        if (host.isEmpty() || host.startsWith(".") || host.endsWith("."))
+            return false;
+
+        Node node = root;
+        int end = host.length();
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.child(host.substring(start, end));
+            end = start - 1;
+        }
+        if (path.equals("/"))
+            path = "";
+        if (allow) {
+            if (path.isEmpty())
+                node.allowHost = true;
+            else
+                node.allowPaths = append(node.allowPaths, path);
+        } else {
+            if (path.isEmpty())
+                node.blockHost = true;
+            else
+                node.blockPaths = append(node.blockPaths, path);
+        }
+        ruleCount++;
+        return true;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * @return true if the url is blocked by a rule and not allowed by another.
+     */
+    public boolean isBlocked(String url) {
+        int hostStart = url.indexOf("://");
+        if (hostStart < 0)
+            return false;
+        hostStart += 3;
+        int hostEnd = hostStart;
+        int length = url.length();
+        while (hostEnd < length) {
+            char c = url.charAt(hostEnd);
+            if (c == '/' || c == ':' || c == '?' || c == '#')
+                break;
+            hostEnd++;
+        }
+        // Skip a port, a '/' in the query or fragment of a url without a path is not the start of a path.
+        int pathStart = hostEnd;
+        while (pathStart < length && url.charAt(pathStart) != '/' && url.charAt(pathStart) != '?' && url.charAt(pathStart) != '#')
+            pathStart++;
+        String path = pathStart < length && url.charAt(pathStart) == '/' ? url.substring(pathStart) : "/";
+
+        boolean blocked = false;
+        Node node = root;
+        int end = hostEnd;
+        while (end > hostStart) {
+            int start = Math.max(url.lastIndexOf('.', end - 1) + 1, hostStart);
+            node = node.children == null ? null : node.children.get(lowerCase(url, start, end));
+            if (node == null)
+                break;
+            if (node.allowHost || startsWithAny(path, node.allowPaths))
+                return false;
+            if (node.blockHost || startsWithAny(path, node.blockPaths))
+                blocked = true;
+            end = start - 1;
+        }
+        return blocked;
+    }
+
+    private static String lowerCase(String url, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                return url.substring(start, end).toLowerCase();
+        }
+        return url.substring(start, end);
+    }
+
+    private static boolean startsWithAny(String path, String[] prefixes) {
+        if (prefixes != null)
+            for (String prefix : prefixes)
+                if (path.startsWith(prefix))
+                    return true;
+        return false;
+    }
+
+    private static String[] append(String[] array, String value) {
+        if (array == null)
+            return new String[]{value};
+        String[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static class Node {
+        HashMap<String, Node> children;
+        boolean blockHost;
+        boolean allowHost;
+        String[] blockPaths;
+        String[] allowPaths;
+
+        Node child(String label) {
+            if (children == null)
+                children = new HashMap<>(4);
+            Node child = children.get(label);
+            if (child == null) {
+                child = new Node();
+                children.put(label, child);
+            }
+            return child;
+        }
+    }
+}
@@ -30,6 +30,19 @@ public class JSSensorBridge {
         kioskerWebViewClient.setLightSensorDelaySpeed(speed);
     }
 
+    /**
+     * The light sensor updates are coalesced and sent to lightSensorUpdate at most this many times per second.
+     */
+    @JavascriptInterface
+    public void setLightSensorMaxRate(int updatesPerSecond) {
+        kioskerWebViewClient.setSensorMaxRate("light", updatesPerSecond);
+    }
+
+    @JavascriptInterface
+    public void setLightSensorAveraging(boolean averaging) {
+        kioskerWebViewClient.setSensorAveraging("light", averaging);
+    }
+
     @JavascriptInterface
     public String getPairedDevices() {
         ArrayList<String> res = new ArrayList<>();
@@ -38,6 +51,14 @@ public class JSSensorBridge {
         return new JSONArray(res).toString();
     }
 
+    /**
+     * Found devices are sent to the page in batches, collected for this many milliseconds.
+     */
+    @JavascriptInterface
+    public void setBluetoothBatchMillis(long batchMillis) {
+        kioskerWebViewClient.setBluetoothBatchMillis(batchMillis);
+    }
+
     @JavascriptInterface
     public void startBluetoothDiscovery() {
         kioskerWebViewClient.startBluetoothDiscovery();
@@ -52,4 +73,27 @@ public class JSSensorBridge {
     public void stopLightSensor() {
         kioskerWebViewClient.stopLightSensor();
     }
+
+    /**
+     * Starts sending the updates of the light, proximity or accelerometer sensor to the function name + "SensorUpdate".
+     */
+    @JavascriptInterface
+    public void startSensor(String name) {
+        kioskerWebViewClient.startSensor(name);
+    }
+
+    @JavascriptInterface
+    public void stopSensor(String name) {
+        kioskerWebViewClient.stopSensor(name);
+    }
+
+    @JavascriptInterface
+    public void setSensorMaxRate(String name, int updatesPerSecond) {
+        kioskerWebViewClient.setSensorMaxRate(name, updatesPerSecond);
+    }
+
+    @JavascriptInterface
+    public void setSensorAveraging(String name, boolean averaging) {
+        kioskerWebViewClient.setSensorAveraging(name, averaging);
+    }
 }
\ No newline at end of file
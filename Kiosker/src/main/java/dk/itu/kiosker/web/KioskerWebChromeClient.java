@@ -4,6 +4,7 @@ import android.util.Log;
 import android.webkit.ConsoleMessage;
 import android.webkit.GeolocationPermissions;
 import android.webkit.WebChromeClient;
+import android.webkit.WebView;
 
 import dk.itu.kiosker.models.Constants;
 
@@ -15,6 +16,13 @@ public class KioskerWebChromeClient extends WebChromeClient {
         callback.invoke(origin, true, true);
     }
 
+    @Override
+    public void onProgressChanged(WebView view, int newProgress) {
+        // The chrome client is shared by the web views of the pool, the progress belongs to the client of the view.
+        if (view instanceof KioskerWebView && ((KioskerWebView) view).client != null)
+            ((KioskerWebView) view).client.onProgressChanged(newProgress);
+    }
+
     /**
      * Here we catch error messages, including js errors, from the chrome client.
      */
@@ -1,16 +1,73 @@
 package dk.itu.kiosker.web;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.webkit.WebView;
 
 public class KioskerWebView extends WebView {
     public KioskerWebViewClient client;
+    private boolean paused;
+    private final long createdAt = SystemClock.elapsedRealtime();
+    private int navigations;
 
     public KioskerWebView(Context context) {
         super(context);
     }
 
+    @Override
+    public void loadUrl(String url) {
+        // Javascript urls run in the page, they are not navigations.
+        if (client != null && !url.startsWith("javascript:"))
+            client.onNavigation(url);
+        super.loadUrl(url);
+    }
+
+    @Override
+    public void reload() {
+        if (client != null)
+            client.onNavigation(getUrl());
+        super.reload();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        paused = true;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        paused = false;
+    }
+
+    /**
+     * @return true while the web view is paused, like the panes behind the screen saver.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return how long ago the web view was created, it may have been reused from the pool since.
+     */
+    public long getAgeMillis() {
+        return SystemClock.elapsedRealtime() - createdAt;
+    }
+
+    /**
+     * @return the number of pages and in-page history entries the web view has visited since it was created.
+     */
+    public int getNavigations() {
+        return navigations;
+    }
+
+    void countNavigation() {
+        navigations++;
+    }
+
     public void stopSensors() {
-        client.stopLightSensor();
+        if (client != null)
+            client.stopSensors();
     }
 }
@@ -1,198 +1,392 @@
 package dk.itu.kiosker.web;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.util.Log;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import dk.itu.kiosker.activities.KioskerActivity;
 import dk.itu.kiosker.models.Constants;
-import dk.itu.kiosker.utils.SettingsExtractor;
+import dk.itu.kiosker.models.KioskSettings;
 import dk.itu.kiosker.utils.BluetoothDeviceTuple;
+import dk.itu.kiosker.utils.RetryPolicy;
+import dk.itu.kiosker.utils.SensorHub;
 import rx.Observable;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
 import rx.functions.Action1;
 
-public class KioskerWebViewClient extends WebViewClient implements SensorEventListener {
+public class KioskerWebViewClient extends WebViewClient {
+    public static final String SENSOR_BRIDGE_NAME = "sensorBridge";
+    // The sensors the page can start by name, their updates are sent to the javascript function <name>SensorUpdate.
+    private static final Map<String, Integer> SENSOR_TYPES = new HashMap<>();
+
+    static {
+        SENSOR_TYPES.put("light", Sensor.TYPE_LIGHT);
+        SENSOR_TYPES.put("proximity", Sensor.TYPE_PROXIMITY);
+        SENSOR_TYPES.put("accelerometer", Sensor.TYPE_ACCELEROMETER);
+    }
+
     private final long errorReloadMins;
     private final KioskerActivity kioskerActivity;
     private final boolean addSensorBridge;
-    private BluetoothAdapter mBluetoothAdapter;
-    private boolean errorReloaderStarted;
+    // Recovering from a page that failed to load, retried with a growing delay until the device is refreshed.
+    private final RetryPolicy errorRetryPolicy;
+    private final int errorRefreshFailures;
+    private final PageArchive pageArchive;
+    private Subscription errorRetrySubscription;
+    private String failingUrl;
+    private boolean loadFailed;
     private boolean firstPageLoad;
     private String deviceId = "";
-    private int lightSensorDelaySpeed = 3;
-    private SensorManager sensorManager;
+    private int sensorDelaySpeed = 3;
+    private final SensorHub sensorHub;
     private JSSensorBridge jsSensorBridge;
+    private final Map<String, SensorDelivery> sensorDeliveries = new HashMap<>();
+    private final Map<String, Subscription> sensorSubscriptions = new HashMap<>();
+    private Subscription bluetoothSubscription;
+    private final BluetoothDelivery bluetoothDelivery = new BluetoothDelivery();
     private WebView view;
+    private OfflineCache offlineCache;
+    private long cacheTtlMillis;
+    private String userAgent;
+    private RequestFilter requestFilter;
+    private RequestFilter.Counter blockedCounter;
+    private PageLoadTelemetry.PageLoad pageLoad;
+    private Action0 pageFinishedAction;
+    // The url the web view was last asked to load, requests for it are the page itself rather than one of its resources.
+    private volatile String navigationUrl;
+    private boolean showingFailure;
+    // Web views loading pages in the background must not take their first page for the home page.
+    public boolean recordsHomeUrl = true;
 
-    public KioskerWebViewClient(LinkedHashMap settings, final KioskerActivity kioskerActivity) {
-        this.errorReloadMins = SettingsExtractor.getInteger(settings, "errorReloadMins");
+    public KioskerWebViewClient(KioskSettings settings, final KioskerActivity kioskerActivity) {
+        this.errorReloadMins = settings.errorReloadMins;
+        this.errorRetryPolicy = new RetryPolicy(settings.errorRetryBaseSecs, errorReloadMins * 60, Integer.MAX_VALUE, 0);
+        this.errorRefreshFailures = settings.errorRefreshFailures;
+        this.pageArchive = settings.errorShowLastCopy ? PageArchive.getInstance(kioskerActivity) : null;
         this.kioskerActivity = kioskerActivity;
-        this.addSensorBridge = SettingsExtractor.getBoolean(settings, "addSensorBridge");
-        this.sensorManager = (SensorManager) kioskerActivity.getSystemService(Context.SENSOR_SERVICE);
+        this.addSensorBridge = settings.addSensorBridge;
+        this.sensorHub = SensorHub.getInstance(kioskerActivity);
         this.deviceId = "\"" + Constants.getString(kioskerActivity, Constants.KIOSKER_DEVICE_ID) + "\"";
 
-        // Init the bridge object if we need it along with the bluetooth adaptor
-        if (addSensorBridge) {
+        // Init the bridge object if we need it, the sensors and bluetooth are only opened when the page asks for them.
+        if (addSensorBridge)
             jsSensorBridge = new JSSensorBridge(this);
+    }
 
-            mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-            IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-            kioskerActivity.registerReceiver(new BroadcastReceiver() {
-                public void onReceive(Context context, Intent intent) {
-                    if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(intent.getAction())) {
-                        // When a discovery has finished remove the broadcast receiver used in a scan
-                        kioskerActivity.unregisterReceiver(bluetoothUpdateReceiver);
-                    }
-                }
-            }, filter);
+    /**
+     * Serves the pages of this web view from the offline cache.
+     *
+     * @param cacheMins how long cached pages are fresh.
+     * @param userAgent the user agent of the web view, the cache downloads pages as the web view would.
+     */
+    public void setOfflineCache(OfflineCache offlineCache, int cacheMins, String userAgent) {
+        this.offlineCache = offlineCache;
+        this.cacheTtlMillis = TimeUnit.MINUTES.toMillis(cacheMins);
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Blocks the requests of this web view matching the rules of the filter.
+     *
+     * @param blockedCounter counts the blocked requests of the pane this web view shows.
+     */
+    public void setRequestFilter(RequestFilter requestFilter, RequestFilter.Counter blockedCounter) {
+        this.requestFilter = requestFilter;
+        this.blockedCounter = blockedCounter;
+    }
+
+    /**
+     * Records how long the pages of this web view take to load.
+     */
+    public void setPageLoad(PageLoadTelemetry.PageLoad pageLoad) {
+        this.pageLoad = pageLoad;
+    }
+
+    /**
+     * Called by the web view when it is asked to load a url.
+     */
+    public void onNavigation(String url) {
+        navigationUrl = url;
+        if (pageLoad != null)
+            pageLoad.navigate(url);
+    }
+
+    public void onProgressChanged(int progress) {
+        if (pageLoad != null)
+            pageLoad.progressChanged(progress);
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+        if (requestFilter != null && requestFilter.shouldBlock(url)) {
+            blockedCounter.countBlocked();
+            return requestFilter.blockedResponse();
         }
+        if (offlineCache == null)
+            return null;
+        return offlineCache.get(url, url.equals(navigationUrl), cacheTtlMillis, userAgent);
     }
 
     // you tell the web client you want to catch when a url is about to load
     @Override
     public boolean shouldOverrideUrlLoading(WebView view, String url) {
+        onNavigation(url);
         return false;
     }
 
     // here you execute an action when the URL you want is about to load
     @Override
     public void onLoadResource(WebView view, String url) {
+        if (pageLoad != null)
+            pageLoad.resourceLoaded();
         if (!url.startsWith("http")) {
             Log.d(Constants.TAG, "URL ERROR" + url);
         }
     }
 
+    // Also called when a single page app pushes a history entry, which a page load is not.
+    @Override
+    public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+        super.doUpdateVisitedHistory(view, url, isReload);
+        if (view instanceof KioskerWebView)
+            ((KioskerWebView) view).countNavigation();
+    }
+
+    @Override
+    public void onPageStarted(WebView view, String url, Bitmap favicon) {
+        super.onPageStarted(view, url, favicon);
+        if (pageLoad != null)
+            pageLoad.pageStarted(url);
+        loadFailed = false;
+    }
+
     @Override
     public void onPageFinished(final WebView view, String url) {
         super.onPageFinished(view, url);
+        if (pageLoad != null)
+            pageLoad.pageFinished(url);
+        boolean showingArchive = pageArchive != null && pageArchive.isArchiveUrl(url);
+        showingFailure = loadFailed || isRecovering() || showingArchive;
+        if (showingFailure) {
+            loadFailed = false;
+            if (pageFinishedAction != null)
+                pageFinishedAction.call();
+            return;
+        }
+        errorRetryPolicy.onSuccess();
+        failingUrl = null;
         if (!firstPageLoad) {
-            Constants.setString(kioskerActivity, url, Constants.KIOSKER_HOME_URL_ID);
+            // A web view reused from the pool must not go back to the pages it showed before.
+            view.clearHistory();
+            if (recordsHomeUrl)
+                Constants.setString(kioskerActivity, url, Constants.KIOSKER_HOME_URL_ID);
             firstPageLoad = true;
             if (addSensorBridge) {
                 // Injecting the Java object to JavaScript
-                view.addJavascriptInterface(jsSensorBridge, "sensorBridge");
+                view.addJavascriptInterface(jsSensorBridge, SENSOR_BRIDGE_NAME);
                 view.reload();
                 this.view = view;
+                // The page is only finished once it has loaded again with the bridge.
+                return;
             }
         }
+        if (pageArchive != null)
+            pageArchive.save(view, url);
+        if (pageFinishedAction != null)
+            pageFinishedAction.call();
+    }
+
+    /**
+     * @param pageFinishedAction called whenever a page finishes loading.
+     */
+    public void setPageFinishedAction(Action0 pageFinishedAction) {
+        this.pageFinishedAction = pageFinishedAction;
     }
 
-    private BroadcastReceiver bluetoothUpdateReceiver = new BroadcastReceiver() {
-            public void onReceive(Context context, Intent intent) {
-                String action = intent.getAction();
-                // When discovery finds a device
-                if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-                    // Get the BluetoothDevice object from the Intent
-                    BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    // Add the name and address to an array adapter to show in a ListView
-                    BluetoothDeviceTuple deviceInfo = new BluetoothDeviceTuple(device.getName(), device.getAddress());
-                    view.loadUrl("javascript:bluetoothSensorUpdate(" + deviceInfo + ")");
+    public synchronized void startBluetoothDiscovery() {
+        if (bluetoothSubscription == null) {
+            bluetoothDelivery.setView(view);
+            bluetoothSubscription = sensorHub.subscribeBluetooth(new Action1<BluetoothDeviceTuple>() {
+                @Override
+                public void call(BluetoothDeviceTuple deviceInfo) {
+                    bluetoothDelivery.offer(deviceInfo);
                 }
-            }
-        };
-
-    public void startBluetoothDiscovery() {
-        if (mBluetoothAdapter == null) Log.d(Constants.TAG, "No Bluetooth Radio");
-        else {
-            if (!mBluetoothAdapter.isEnabled()) mBluetoothAdapter.enable();
-            if (mBluetoothAdapter.isDiscovering())
-                mBluetoothAdapter.cancelDiscovery();
-            if (!mBluetoothAdapter.isDiscovering()) {
-                IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
-                kioskerActivity.registerReceiver(bluetoothUpdateReceiver, filter);
-                mBluetoothAdapter.startDiscovery();
-            }
+            });
         }
+        sensorHub.startBluetoothDiscovery();
+    }
+
+    /**
+     * @param batchMillis how long devices found by a discovery are collected before they are sent to the page.
+     */
+    public void setBluetoothBatchMillis(long batchMillis) {
+        bluetoothDelivery.setBatchMillis(batchMillis);
     }
 
     public ArrayList<BluetoothDeviceTuple> getPairedDevices() {
-        if (mBluetoothAdapter == null) Log.d(Constants.TAG, "No Bluetooth Radio");
-        else if (!mBluetoothAdapter.isEnabled()) mBluetoothAdapter.enable();
-        ArrayList<BluetoothDeviceTuple> pairedDevices = new ArrayList<>();
-        for (BluetoothDevice device : mBluetoothAdapter.getBondedDevices()) {
-            pairedDevices.add(new BluetoothDeviceTuple(device.getName(), device.getAddress()));
-        }
-        return pairedDevices;
+        return sensorHub.getPairedDevices();
     }
 
-    public void setLightSensorDelaySpeed(int lightSensorDelaySpeed) {
-        this.lightSensorDelaySpeed = lightSensorDelaySpeed;
+    public void setLightSensorDelaySpeed(int sensorDelaySpeed) {
+        this.sensorDelaySpeed = sensorDelaySpeed;
     }
 
     public void startLightSensor() {
-        int sensorDelay;
-        switch (lightSensorDelaySpeed) {
+        startSensor("light");
+    }
+
+    public void stopLightSensor() {
+        stopSensor("light");
+    }
+
+    /**
+     * Starts sending the updates of a sensor to the page, or restarts it with the current delay speed.
+     *
+     * @param name light, proximity or accelerometer.
+     */
+    public synchronized void startSensor(String name) {
+        Integer sensorType = SENSOR_TYPES.get(name);
+        if (!addSensorBridge || sensorType == null) {
+            Log.d(Constants.TAG, "Unknown sensor: " + name);
+            return;
+        }
+        Subscription previous = sensorSubscriptions.remove(name);
+        if (previous != null)
+            previous.unsubscribe();
+        final SensorDelivery delivery = getSensorDelivery(name);
+        Log.d(Constants.TAG, "Speed of " + name + " sensor : " + sensorDelaySpeed);
+        sensorSubscriptions.put(name, sensorHub.subscribe(sensorType, getSensorDelay(), new Action1<float[]>() {
+            @Override
+            public void call(float[] values) {
+                delivery.offer(values);
+            }
+        }));
+    }
+
+    public synchronized void stopSensor(String name) {
+        Subscription subscription = sensorSubscriptions.remove(name);
+        if (subscription != null)
+            subscription.unsubscribe();
+        if (sensorDeliveries.containsKey(name))
+            sensorDeliveries.get(name).stop();
+    }
+
+    /**
+     * @param updatesPerSecond the most updates of the sensor the page wants per second.
+     */
+    public synchronized void setSensorMaxRate(String name, int updatesPerSecond) {
+        getSensorDelivery(name).setMaxRate(updatesPerSecond);
+    }
+
+    /**
+     * @param averaging send the page the average of the sensor since the last update instead of the latest values.
+     */
+    public synchronized void setSensorAveraging(String name, boolean averaging) {
+        getSensorDelivery(name).setAveraging(averaging);
+    }
+
+    /**
+     * Stops every sensor and the bluetooth updates of the page.
+     */
+    public synchronized void stopSensors() {
+        for (Subscription subscription : sensorSubscriptions.values())
+            subscription.unsubscribe();
+        sensorSubscriptions.clear();
+        for (SensorDelivery delivery : sensorDeliveries.values())
+            delivery.stop();
+        if (bluetoothSubscription != null) {
+            bluetoothSubscription.unsubscribe();
+            bluetoothSubscription = null;
+        }
+        bluetoothDelivery.stop();
+    }
+
+    private SensorDelivery getSensorDelivery(String name) {
+        SensorDelivery delivery = sensorDeliveries.get(name);
+        if (delivery == null) {
+            delivery = new SensorDelivery(kioskerActivity, name + "SensorUpdate", deviceId);
+            delivery.setView(view);
+            sensorDeliveries.put(name, delivery);
+        }
+        return delivery;
+    }
+
+    private int getSensorDelay() {
+        switch (sensorDelaySpeed) {
             case 0:
-                sensorDelay = SensorManager.SENSOR_DELAY_FASTEST;
-                break;
+                return SensorManager.SENSOR_DELAY_FASTEST;
             case 1:
-                sensorDelay = SensorManager.SENSOR_DELAY_GAME;
-                break;
+                return SensorManager.SENSOR_DELAY_GAME;
             case 2:
-                sensorDelay = SensorManager.SENSOR_DELAY_UI;
-                break;
-            case 3:
-                sensorDelay = SensorManager.SENSOR_DELAY_NORMAL;
-                break;
+                return SensorManager.SENSOR_DELAY_UI;
             default:
-                sensorDelay = SensorManager.SENSOR_DELAY_NORMAL;
+                return SensorManager.SENSOR_DELAY_NORMAL;
         }
-        Log.d(Constants.TAG, "Speed of light sensor : " + lightSensorDelaySpeed);
-        sensorManager.registerListener(this,
-                sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT),
-                sensorDelay);
     }
 
-    @Override // This is the method called whenever the light sensor gets an update from the sensor.
-    public void onSensorChanged(SensorEvent event) {
-        if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
-            float lux = event.values[0]; // SI lux units (m/s^2), range 0.0 -> 32768.0
-            view.loadUrl("javascript:lightSensorUpdate(" + lux + "," + deviceId + ")");
-        }
+    @Override
+    public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
+        if (pageLoad != null)
+            pageLoad.error(errorCode);
+        loadFailed = true;
+        if (errorReloadMins <= 0 || (pageArchive != null && pageArchive.isArchiveUrl(failingUrl)) || isRecovering())
+            return;
+        Log.d(Constants.TAG, String.format("Web error %d loading %s: %s", errorCode, failingUrl, description));
+        this.failingUrl = failingUrl;
+        String archiveUrl = pageArchive == null ? null : pageArchive.getArchiveUrl(failingUrl);
+        if (archiveUrl != null)
+            view.loadUrl(archiveUrl);
+        scheduleRetry(view);
     }
 
-    public void stopLightSensor() {
-        if (addSensorBridge) sensorManager.unregisterListener(this);
+    private boolean isRecovering() {
+        return errorRetrySubscription != null && !errorRetrySubscription.isUnsubscribed();
     }
 
-    @Override
-    public void onReceivedError(final WebView view, int errorCode, final String description, String failingUrl) {
-        final int webError = errorCode;
-        if (errorReloadMins > 0 && !errorReloaderStarted) {
-            errorReloaderStarted = true;
-            Observable.timer(errorReloadMins, TimeUnit.MINUTES).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
-                @Override
-                public void call(Long aLong) {
-                    errorReloaderStarted = false;
-                    if (webError == ERROR_HOST_LOOKUP) {
-                        Log.d(Constants.TAG, "Refreshing after error web error: " + description);
-                        kioskerActivity.refreshDevice();
-                    } else if (Constants.isNetworkAvailable(kioskerActivity)) {
-                        Log.d(Constants.TAG, "Reloading after web error: " + description);
-                        view.reload();
-                    }
-                }
-            });
-        }
+    /**
+     * @return true if the last page that finished failed to load, or is the last copy shown in its place.
+     */
+    public boolean isShowingFailure() {
+        return showingFailure;
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int i) {
+    /**
+     * Loads the failing page again after the delay of the retry policy,
+     * or refreshes the device once the page has failed errorRefreshFailures times in a row.
+     */
+    private void scheduleRetry(final WebView view) {
+        errorRetryPolicy.onFailure();
+        if (errorRefreshFailures > 0 && errorRetryPolicy.getConsecutiveFailures() >= errorRefreshFailures) {
+            Log.d(Constants.TAG, String.format("Refreshing after %d web errors in a row.", errorRetryPolicy.getConsecutiveFailures()));
+            errorRetryPolicy.onSuccess();
+            kioskerActivity.refreshDevice();
+            return;
+        }
+        long delayMillis = errorRetryPolicy.getRetryDelayMillis();
+        Log.d(Constants.TAG, String.format("Reloading %s in %d seconds.", failingUrl, delayMillis / 1000));
+        errorRetrySubscription = Observable.timer(delayMillis, TimeUnit.MILLISECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
+            @Override
+            public void call(Long aLong) {
+                // The web view may have been released to the pool and handed to another client.
+                if (failingUrl == null || !(view instanceof KioskerWebView) || ((KioskerWebView) view).client != KioskerWebViewClient.this)
+                    return;
+                if (Constants.isNetworkAvailable(kioskerActivity)) {
+                    Log.d(Constants.TAG, "Reloading after web error: " + failingUrl);
+                    view.loadUrl(failingUrl);
+                } else
+                    scheduleRetry(view);
+            }
+        });
     }
 }
\ No newline at end of file
@@ -29,7 +29,7 @@ public class NavigationLayout extends LinearLayout {
     private static final float NAVIGATION_HIDDEN_ALPHA = 0.0f;
     private final Button backButton;
     private final Button forwardButton;
-    private final WebView webView;
+    private WebView webView;
     private final Observable<Long> navigationHideObservable = Observable.timer(Constants.NAVIGATION_ONSCREEN_TIME_SECONDS, TimeUnit.SECONDS).observeOn(AndroidSchedulers.mainThread());
     private final LinearLayout navigationControls;
     private final KioskerActivity kioskerActivity;
@@ -40,7 +40,7 @@ public class NavigationLayout extends LinearLayout {
     private String homeUrl;
     private Subscriber<Long> navigationHideSubscriber;
 
-    public NavigationLayout(boolean homeView, KioskerActivity kioskerActivity, final WebView webView, final ArrayList<WebPage> sitesWebPages) {
+    public NavigationLayout(boolean homeView, KioskerActivity kioskerActivity, final WebView webView, final ArrayList<WebPage> webPages) {
         super(kioskerActivity);
         this.webView = webView;
         this.setGravity(Gravity.CENTER_VERTICAL);
@@ -59,8 +59,8 @@ public class NavigationLayout extends LinearLayout {
         backButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (webView.canGoBack())
-                    webView.goBack();
+                if (NavigationLayout.this.webView.canGoBack())
+                    NavigationLayout.this.webView.goBack();
             }
         });
 
@@ -70,8 +70,8 @@ public class NavigationLayout extends LinearLayout {
         forwardButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (webView.canGoForward())
-                    webView.goForward();
+                if (NavigationLayout.this.webView.canGoForward())
+                    NavigationLayout.this.webView.goForward();
             }
         });
 
@@ -83,7 +83,7 @@ public class NavigationLayout extends LinearLayout {
             public void onClick(View v) {
                 if (titleSpinner != null)
                     titleSpinner.setSelection(0);
-                webView.loadUrl(homeUrl);
+                NavigationLayout.this.webView.loadUrl(homeUrl);
             }
         });
 
@@ -91,11 +91,11 @@ public class NavigationLayout extends LinearLayout {
         navigationControls.addView(forwardButton);
         navigationControls.addView(homeButton);
 
-        // Add the site selector if we are on the secondary panel and the user is allowed to change sites.
+        // Add the site selector if we are not on the home pane and the user is allowed to change sites, it lists the pages of the pane.
         allowSwitching = !homeView && Constants.getBoolean(kioskerActivity, Constants.KIOSKER_ALLOW_SWITCHING_ID);
         if (!homeView && allowSwitching) {
             ArrayList<String> siteTitles = new ArrayList<>();
-            for (WebPage webPage : sitesWebPages) {
+            for (WebPage webPage : webPages) {
                 siteTitles.add(webPage.title);
             }
 
@@ -106,7 +106,7 @@ public class NavigationLayout extends LinearLayout {
             titleSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
                 @Override
                 public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                    webView.loadUrl(sitesWebPages.get(position).url);
+                    NavigationLayout.this.webView.loadUrl(webPages.get(position).url);
                 }
 
                 @Override
@@ -119,6 +119,13 @@ public class NavigationLayout extends LinearLayout {
         this.addView(navigationControls);
     }
 
+    /**
+     * Points the navigation at another web view, used when the secondary pane swaps in a prerendered web view.
+     */
+    public void setWebView(WebView webView) {
+        this.webView = webView;
+    }
+
     /**
      * Show navigation if we are not showing the home screen.
      */
@@ -0,0 +1,526 @@
+package dk.itu.kiosker.web;
+
+import android.content.Context;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.utils.ConnectivityMonitor;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * A disk cache of the pages and resources the web views load, so the panes stay up while the network is down.
+ * Responses are fresh for the time to live of their pane, for as long again a stale response is served
+ * while it is downloaded again in the background, after that it is downloaded before it is served.
+ * While there is no internet everything in the cache is served no matter how old it is.
+ * The least recently used responses are removed when the cache grows past its size.
+ * <p/>
+ * The web view does not tell the method of a request before Lollipop, so only requests that are surely GET requests
+ * are served, the pages the web view navigates to and resources with the extension of a static file.
+ * Only complete 200 responses the server allows to be stored are cached, never json, the web view loads anything else itself.
+ * Urls that were not cached are remembered, so the web view loads them directly next time instead of after a download of our own.
+ * The headers of a response are served with it where the web view accepts them, so cross origin fonts and scripts
+ * keep working. Where it does not, responses allowing cross origin requests are left to the web view.
+ */
+public class OfflineCache {
+    private static final String DIRECTORY = "offline";
+    private static final int TIMEOUT_MILLISECONDS = 30 * 1000;
+    // Urls known not to be cacheable are remembered so they are not requested twice every time.
+    private static final int MAX_UNCACHEABLE_URLS = 500;
+    // Urls that could not be cached for a reason that may change, like a redirect or an error, are left to the web view for this long.
+    private static final long UNCACHEABLE_FOR_NOW_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    // Resources with these extensions are fetched with GET by any page, anything else may be a form post or an api call.
+    private static final Set<String> STATIC_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "html", "htm", "css", "js", "png", "jpg", "jpeg", "gif", "webp", "svg", "ico", "bmp",
+            "woff", "woff2", "ttf", "otf", "eot", "mp3", "mp4", "ogg", "webm"));
+    // Headers that describe the connection or the encoding of the download rather than the response itself.
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "transfer-encoding", "content-encoding", "content-length", "set-cookie"));
+    // Responses can only carry headers from Lollipop on, the app is built against KitKat so the constructor is looked up.
+    private static final Constructor<WebResourceResponse> HEADERS_CONSTRUCTOR = findHeadersConstructor();
+    private static OfflineCache instance;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Context context;
+    private final File directory;
+    // The entries by the hash of their url, least recently used first.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> revalidating = new HashSet<>();
+    // The time until which each url is left to the web view, by the hash of the url.
+    private final Map<String, Long> uncacheable = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_UNCACHEABLE_URLS;
+        }
+    };
+    private boolean loaded;
+    private long totalBytes;
+    private volatile long maxBytes;
+
+    public static synchronized OfflineCache getInstance(Context context) {
+        if (instance == null)
+            instance = new OfflineCache(context.getApplicationContext());
+        return instance;
+    }
+
+    private OfflineCache(Context context) {
+        this.context = context;
+        directory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * @param megabytes the size of the cache, 0 turns the cache off and removes everything in it.
+     */
+    public synchronized void setMaxMegabytes(int megabytes) {
+        maxBytes = Math.max(megabytes, 0) * 1024L * 1024L;
+        if (loaded)
+            evict();
+        else if (maxBytes == 0)
+            clear();
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        entries.clear();
+        uncacheable.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Called on the loading threads of the web views.
+     *
+     * @param navigation true if the web view is navigating to the url, false if it is a resource of the page.
+     * @param ttlMillis  how long a cached response is fresh.
+     * @param userAgent  the user agent of the web view making the request.
+     * @return the response for the url, or null if the web view should load it itself.
+     */
+    public WebResourceResponse get(String url, boolean navigation, long ttlMillis, String userAgent) {
+        if (!isEnabled() || !(url.startsWith("http://") || url.startsWith("https://")))
+            return null;
+        if (!navigation && !STATIC_EXTENSIONS.contains(getExtension(url)))
+            return null;
+        String key = hash(url);
+        Entry entry;
+        synchronized (this) {
+            load();
+            entry = entries.get(key);
+            // What is cached was allowed to be, so it is served even if the url has been uncacheable since.
+            if (entry == null && isUncacheable(key))
+                return null;
+        }
+        boolean online = ConnectivityMonitor.getInstance(context).isNetworkAvailable();
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.storedAt;
+            if (!online || age < ttlMillis)
+                return open(key, entry);
+            if (age < 2 * ttlMillis) {
+                revalidateInBackground(url, key, entry, userAgent);
+                return open(key, entry);
+            }
+        }
+        if (!online)
+            return null;
+        Entry fetched = fetch(url, key, entry, userAgent);
+        if (fetched != null)
+            return open(key, fetched);
+        // Whatever the cache has is better than an error page.
+        return entry != null ? open(key, entry) : null;
+    }
+
+    private void revalidateInBackground(final String url, final String key, final Entry entry, final String userAgent) {
+        synchronized (this) {
+            if (!revalidating.add(key))
+                return;
+        }
+        Observable.from(1L).subscribeOn(Schedulers.io()).subscribe(new Action1<Long>() {
+            @Override
+            public void call(Long aLong) {
+                fetch(url, key, entry, userAgent);
+                synchronized (OfflineCache.this) {
+                    revalidating.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads the url into the cache.
+     *
+     * @param cached the cached entry to revalidate, or null.
+     * @return the entry now in the cache, or null if the download failed or the response can not be cached.
+     */
+    private Entry fetch(String url, String key, Entry cached, String userAgent) {
+        HttpURLConnection connection = null;
+        File body = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            // Redirects are left to the web view so relative urls resolve against the right page.
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(TIMEOUT_MILLISECONDS);
+            connection.setReadTimeout(TIMEOUT_MILLISECONDS);
+            if (userAgent != null)
+                connection.setRequestProperty("User-Agent", userAgent);
+            String cookies = CookieManager.getInstance().getCookie(url);
+            if (cookies != null)
+                connection.setRequestProperty("Cookie", cookies);
+            if (cached != null && cached.eTag != null)
+                connection.setRequestProperty("If-None-Match", cached.eTag);
+            if (cached != null && cached.lastModified != null)
+                connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+
+            int status = connection.getResponseCode();
+            storeCookies(url, connection);
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                cached.storedAt = System.currentTimeMillis();
+                writeMeta(key, cached);
+                return cached;
+            }
+            // Failures, redirects and responses expired when sent may be different later, so they are only remembered for a while.
+            if (status != HttpURLConnection.HTTP_OK || isExpired(connection)) {
+                markUncacheableForNow(key);
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.url = url;
+            setContentType(entry, connection.getContentType());
+            entry.headers = getHeaders(connection);
+            long maxEntryBytes = maxBytes / 8;
+            if (!mayStore(connection, entry) || connection.getContentLength() > maxEntryBytes) {
+                markUncacheable(key);
+                return null;
+            }
+            entry.eTag = connection.getHeaderField("ETag");
+            entry.lastModified = connection.getHeaderField("Last-Modified");
+            entry.storedAt = System.currentTimeMillis();
+
+            if (!directory.exists() && !directory.mkdirs())
+                throw new IOException("Could not create " + directory);
+            body = File.createTempFile(key, ".tmp", directory);
+            if (!copy(connection.getInputStream(), body, maxEntryBytes)) {
+                markUncacheable(key);
+                return null;
+            }
+            entry.size = body.length();
+            put(key, entry, body);
+            return entry;
+        } catch (IOException e) {
+            Log.d(Constants.TAG, "Could not download " + url + " for the offline cache.", e);
+            markUncacheableForNow(key);
+            return null;
+        } finally {
+            if (body != null)
+                body.delete();
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    private WebResourceResponse open(String key, Entry entry) {
+        InputStream body;
+        try {
+            body = new FileInputStream(getBodyFile(key));
+        } catch (IOException e) {
+            synchronized (this) {
+                remove(key);
+            }
+            return null;
+        }
+        if (HEADERS_CONSTRUCTOR != null && entry.headers != null) {
+            try {
+                return HEADERS_CONSTRUCTOR.newInstance(entry.mimeType, entry.encoding, HttpURLConnection.HTTP_OK, "OK", entry.headers, body);
+            } catch (ReflectiveOperationException e) {
+                Log.d(Constants.TAG, "Could not serve the headers of " + entry.url + " from the offline cache.", e);
+            }
+        }
+        return new WebResourceResponse(entry.mimeType, entry.encoding, body);
+    }
+
+    private synchronized void put(String key, Entry entry, File body) throws IOException {
+        writeMeta(key, entry);
+        if (!body.renameTo(getBodyFile(key)))
+            throw new IOException("Could not rename " + body);
+        Entry old = entries.put(key, entry);
+        if (old != null)
+            totalBytes -= old.size;
+        totalBytes += entry.size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue().size;
+            getBodyFile(eldest.getKey()).delete();
+            getMetaFile(eldest.getKey()).delete();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            totalBytes -= entry.size;
+        getBodyFile(key).delete();
+        getMetaFile(key).delete();
+    }
+
+    // A cached response the server no longer allows to be stored is removed as well.
+    private void markUncacheable(String key) {
+        synchronized (this) {
+            uncacheable.put(key, Long.MAX_VALUE);
+            if (entries.containsKey(key))
+                remove(key);
+        }
+    }
+
+    // A cached response is kept, it is still served while the url can not be downloaded.
+    private synchronized void markUncacheableForNow(String key) {
+        uncacheable.put(key, System.currentTimeMillis() + UNCACHEABLE_FOR_NOW_MILLIS);
+    }
+
+    private boolean isUncacheable(String key) {
+        Long until = uncacheable.get(key);
+        if (until == null)
+            return false;
+        if (until > System.currentTimeMillis())
+            return true;
+        uncacheable.remove(key);
+        return false;
+    }
+
+    // Reads the entries left by the last run, oldest first so they are the first to be evicted.
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        List<Map.Entry<String, Entry>> found = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".meta")) {
+                if (name.endsWith(".tmp"))
+                    file.delete();
+                continue;
+            }
+            String key = name.substring(0, name.length() - ".meta".length());
+            try {
+                Entry entry = mapper.readValue(file, Entry.class);
+                if (getBodyFile(key).length() == entry.size)
+                    found.add(new AbstractMap.SimpleEntry<>(key, entry));
+                else
+                    remove(key);
+            } catch (IOException e) {
+                remove(key);
+            }
+        }
+        Collections.sort(found, new Comparator<Map.Entry<String, Entry>>() {
+            @Override
+            public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+                return Long.valueOf(a.getValue().storedAt).compareTo(b.getValue().storedAt);
+            }
+        });
+        for (Map.Entry<String, Entry> entry : found) {
+            entries.put(entry.getKey(), entry.getValue());
+            totalBytes += entry.getValue().size;
+        }
+        evict();
+    }
+
+    private void writeMeta(String key, Entry entry) throws IOException {
+        File temp = new File(directory, key + ".meta.tmp");
+        mapper.writeValue(temp, entry);
+        if (!temp.renameTo(getMetaFile(key))) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+    }
+
+    private File getBodyFile(String key) {
+        return new File(directory, key + ".body");
+    }
+
+    private File getMetaFile(String key) {
+        return new File(directory, key + ".meta");
+    }
+
+    // Only the server saying the response must not be stored, or must be checked before every use, is final.
+    private static boolean mayStore(HttpURLConnection connection, Entry entry) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("no-cache") || directive.equals("private")
+                        || directive.matches("max-age\\s*=\\s*\"?0+\"?"))
+                    return false;
+            }
+        }
+        String pragma = connection.getHeaderField("Pragma");
+        if (cacheControl == null && pragma != null && pragma.toLowerCase().contains("no-cache"))
+            return false;
+        // Api responses change with every request and a stale copy of them is worse than none.
+        String mimeType = entry.mimeType.toLowerCase();
+        if (mimeType.equals("application/json") || mimeType.equals("text/json") || mimeType.endsWith("+json"))
+            return false;
+        // Without its headers a response allowing cross origin requests would be refused by the page using it.
+        return HEADERS_CONSTRUCTOR != null || connection.getHeaderField("Access-Control-Allow-Origin") == null;
+    }
+
+    // A response that expired when it was sent is not fresh for any time, but may be next time.
+    private static boolean isExpired(HttpURLConnection connection) {
+        if (connection.getHeaderField("Cache-Control") != null || connection.getHeaderField("Expires") == null)
+            return false;
+        long expires = connection.getExpiration();
+        long date = connection.getDate() != 0 ? connection.getDate() : System.currentTimeMillis();
+        return expires <= date;
+    }
+
+    private static Map<String, String> getHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            // The status line is kept under a null name.
+            if (header.getKey() == null || SKIPPED_HEADERS.contains(header.getKey().toLowerCase()))
+                continue;
+            StringBuilder value = new StringBuilder();
+            for (String part : header.getValue())
+                value.append(value.length() == 0 ? "" : ", ").append(part);
+            headers.put(header.getKey(), value.toString());
+        }
+        return headers;
+    }
+
+    // The lower case extension of the last segment of the path of the url, or an empty string if it has none.
+    private static String getExtension(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query != -1)
+            end = query;
+        int fragment = url.indexOf('#');
+        if (fragment != -1 && fragment < end)
+            end = fragment;
+        int slash = url.lastIndexOf('/', end - 1);
+        int dot = url.lastIndexOf('.', end - 1);
+        // The dot of the host does not count, "http://" ends at the seventh character or later.
+        if (dot <= slash || slash < url.indexOf("//") + 2)
+            return "";
+        return url.substring(dot + 1, end).toLowerCase();
+    }
+
+    private static Constructor<WebResourceResponse> findHeadersConstructor() {
+        try {
+            return WebResourceResponse.class.getConstructor(String.class, String.class, int.class, String.class, Map.class, InputStream.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    // Splits a content type like "text/html; charset=utf-8" into the mime type and encoding of the entry.
+    private static void setContentType(Entry entry, String contentType) {
+        if (contentType == null)
+            contentType = URLConnection.guessContentTypeFromName(entry.url);
+        if (contentType == null)
+            contentType = "application/octet-stream";
+        String[] parts = contentType.split(";");
+        entry.mimeType = parts[0].trim();
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.toLowerCase().startsWith("charset="))
+                entry.encoding = part.substring("charset=".length()).replace("\"", "");
+        }
+    }
+
+    private static void storeCookies(String url, HttpURLConnection connection) {
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet())
+            if ("Set-Cookie".equalsIgnoreCase(header.getKey()))
+                for (String cookie : header.getValue())
+                    CookieManager.getInstance().setCookie(url, cookie);
+    }
+
+    /**
+     * @return false if the stream was longer than the limit.
+     */
+    private static boolean copy(InputStream in, File file, long limit) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > limit)
+                    return false;
+                out.write(buffer, 0, read);
+            }
+            return true;
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    private static String hash(String url) {
+        try {
+            MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+            Formatter formatter = new Formatter();
+            for (byte b : crypt.digest(url.getBytes("UTF-8")))
+                formatter.format("%02x", b);
+            String result = formatter.toString();
+            formatter.close();
+            return result;
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static class Entry {
+        public String url;
+        public String mimeType;
+        public String encoding;
+        public String eTag;
+        public String lastModified;
+        // The headers of the response as the web view is given them, null for entries cached without them.
+        public Map<String, String> headers;
+        public long storedAt;
+        public long size;
+    }
+}
@@ -0,0 +1,89 @@
+package dk.itu.kiosker.web;
+
+import android.content.Context;
+import android.webkit.WebView;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Formatter;
+
+/**
+ * Keeps a web archive of the last page each url rendered successfully,
+ * shown in a pane while the page itself fails to load.
+ * Only the archives of the most recently rendered urls are kept.
+ */
+public class PageArchive {
+    private static final String DIRECTORY = "archives";
+    private static final int MAX_ARCHIVES = 20;
+    private static PageArchive instance;
+
+    private final File directory;
+
+    public static synchronized PageArchive getInstance(Context context) {
+        if (instance == null)
+            instance = new PageArchive(context.getApplicationContext());
+        return instance;
+    }
+
+    private PageArchive(Context context) {
+        directory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    /**
+     * Saves the page the web view shows as the archive of the url, the web view writes it in the background.
+     */
+    public void save(WebView view, String url) {
+        if (!directory.exists() && !directory.mkdirs())
+            return;
+        view.saveWebArchive(getFile(url).getPath(), false, null);
+        prune();
+    }
+
+    /**
+     * @return the url of the archive of the url to load in a web view, or null if there is none.
+     */
+    public String getArchiveUrl(String url) {
+        File file = getFile(url);
+        return file.exists() ? "file://" + file.getPath() : null;
+    }
+
+    public boolean isArchiveUrl(String url) {
+        return url != null && url.startsWith("file://" + directory.getPath());
+    }
+
+    private File getFile(String url) {
+        return new File(directory, hash(url) + ".mht");
+    }
+
+    private void prune() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_ARCHIVES)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(b.lastModified()).compareTo(a.lastModified());
+            }
+        });
+        for (int i = MAX_ARCHIVES; i < files.length; i++)
+            files[i].delete();
+    }
+
+    private static String hash(String url) {
+        try {
+            MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+            Formatter formatter = new Formatter();
+            for (byte b : crypt.digest(url.getBytes("UTF-8")))
+                formatter.format("%02x", b);
+            String result = formatter.toString();
+            formatter.close();
+            return result;
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
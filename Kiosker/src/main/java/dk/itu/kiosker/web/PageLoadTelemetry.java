@@ -0,0 +1,245 @@
+package dk.itu.kiosker.web;
+
+import android.os.SystemClock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records how long the pages of the panes take to load, so slow sites can be found.
+ * The last loads are kept in a fixed size ring buffer of primitive columns, so recording never allocates
+ * and old loads are simply overwritten. Times are milliseconds from the start of the navigation,
+ * -1 if the navigation was started by the page itself and its start is unknown.
+ */
+public class PageLoadTelemetry {
+    public static final int CAPACITY = 256;
+    // The progress percentages the time to reach is recorded for.
+    private static final int[] PROGRESS_MILESTONES = {25, 50, 75, 100};
+    private static final int[] PERCENTILES = {50, 90, 99};
+    private static PageLoadTelemetry instance;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<String> paneNames = new ArrayList<>();
+    private final long[] startedAt = new long[CAPACITY];
+    private final int[] panes = new int[CAPACITY];
+    private final String[] urls = new String[CAPACITY];
+    private final int[] startMillis = new int[CAPACITY];
+    private final int[] finishMillis = new int[CAPACITY];
+    private final int[][] progressMillis = new int[PROGRESS_MILESTONES.length][CAPACITY];
+    private final int[] resourceCounts = new int[CAPACITY];
+    private final int[] errorCodes = new int[CAPACITY];
+    private int next;
+    private int size;
+
+    public static synchronized PageLoadTelemetry getInstance() {
+        if (instance == null)
+            instance = new PageLoadTelemetry();
+        return instance;
+    }
+
+    /**
+     * @param pane the pane the loads are recorded for.
+     * @return a tracker for the loads of one web view.
+     */
+    public synchronized PageLoad newPageLoad(String pane) {
+        int paneId = paneNames.indexOf(pane);
+        if (paneId < 0) {
+            paneId = paneNames.size();
+            paneNames.add(pane);
+        }
+        return new PageLoad(paneId);
+    }
+
+    private synchronized void record(PageLoad load, long now) {
+        int i = next;
+        startedAt[i] = System.currentTimeMillis() - (now - load.navigationStart);
+        panes[i] = load.paneId;
+        urls[i] = load.url;
+        startMillis[i] = load.knownStart ? (int) (load.pageStart - load.navigationStart) : -1;
+        finishMillis[i] = (int) (now - load.navigationStart);
+        for (int m = 0; m < PROGRESS_MILESTONES.length; m++)
+            progressMillis[m][i] = load.progressMillis[m];
+        resourceCounts[i] = load.resourceCount;
+        errorCodes[i] = load.errorCode;
+        next = (i + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+    }
+
+    /**
+     * @return the percentiles of the load times of each pane, and the slowest recent loads.
+     */
+    public synchronized String getStatus() {
+        if (size == 0)
+            return "";
+        String status = "Page loads (last " + size + "):";
+        for (Map.Entry<String, Map<String, Object>> pane : summarize().entrySet()) {
+            Map<String, Object> summary = pane.getValue();
+            status += "\n" + pane.getKey() + ": " + summary.get("loads") + " loads, " + summary.get("errors") + " errors, finished in";
+            for (int percentile : PERCENTILES)
+                status += " p" + percentile + " " + summary.get("p" + percentile) + " ms";
+        }
+        Integer[] slowest = byFinishTime();
+        for (int s = 0; s < Math.min(3, slowest.length); s++) {
+            int i = slowest[s];
+            status += "\nSlow: " + finishMillis[i] + " ms " + urls[i];
+        }
+        return status;
+    }
+
+    /**
+     * @return the recorded loads and their summary per pane as json, oldest load first.
+     */
+    public String toJson(String deviceId) throws IOException {
+        Map<String, Object> export = new LinkedHashMap<>();
+        List<Map<String, Object>> loads = new ArrayList<>();
+        synchronized (this) {
+            export.put("deviceId", deviceId);
+            export.put("exportedAt", System.currentTimeMillis());
+            export.put("panes", summarize());
+            for (int i : ordered()) {
+                Map<String, Object> load = new LinkedHashMap<>();
+                load.put("pane", paneNames.get(panes[i]));
+                load.put("url", urls[i]);
+                load.put("startedAt", startedAt[i]);
+                load.put("startMillis", startMillis[i]);
+                load.put("finishMillis", finishMillis[i]);
+                Map<String, Object> progress = new LinkedHashMap<>();
+                for (int m = 0; m < PROGRESS_MILESTONES.length; m++)
+                    progress.put(String.valueOf(PROGRESS_MILESTONES[m]), progressMillis[m][i]);
+                load.put("progressMillis", progress);
+                load.put("resources", resourceCounts[i]);
+                load.put("errorCode", errorCodes[i]);
+                loads.add(load);
+            }
+        }
+        export.put("loads", loads);
+        return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(export);
+    }
+
+    private Map<String, Map<String, Object>> summarize() {
+        Map<String, Map<String, Object>> summaries = new LinkedHashMap<>();
+        for (int paneId = 0; paneId < paneNames.size(); paneId++) {
+            int[] times = new int[size];
+            int count = 0;
+            int errors = 0;
+            for (int i = 0; i < size; i++) {
+                if (panes[i] != paneId)
+                    continue;
+                times[count++] = finishMillis[i];
+                if (errorCodes[i] != 0)
+                    errors++;
+            }
+            if (count == 0)
+                continue;
+            Arrays.sort(times, 0, count);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("loads", count);
+            summary.put("errors", errors);
+            for (int percentile : PERCENTILES)
+                summary.put("p" + percentile, times[Math.min(count - 1, count * percentile / 100)]);
+            summaries.put(paneNames.get(paneId), summary);
+        }
+        return summaries;
+    }
+
+    // The indexes of the recorded loads, oldest first.
+    private int[] ordered() {
+        int[] indexes = new int[size];
+        int oldest = size < CAPACITY ? 0 : next;
+        for (int i = 0; i < size; i++)
+            indexes[i] = (oldest + i) % CAPACITY;
+        return indexes;
+    }
+
+    private Integer[] byFinishTime() {
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++)
+            indexes[i] = i;
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return finishMillis[b] - finishMillis[a];
+            }
+        });
+        return indexes;
+    }
+
+    /**
+     * The load in progress in one web view, called on the main thread by the clients of the web view.
+     */
+    public class PageLoad {
+        private final int paneId;
+        private final int[] progressMillis = new int[PROGRESS_MILESTONES.length];
+        private boolean loading;
+        private boolean knownStart;
+        private long navigationStart;
+        private long pageStart;
+        private String url;
+        private int resourceCount;
+        private int errorCode;
+
+        private PageLoad(int paneId) {
+            this.paneId = paneId;
+        }
+
+        /**
+         * The app or the user asked the web view to load a url.
+         */
+        public void navigate(String url) {
+            reset(url);
+            knownStart = true;
+        }
+
+        public void pageStarted(String url) {
+            // Redirects start the page again, the load started with the first one.
+            if (!loading)
+                reset(url);
+            this.url = url;
+            pageStart = SystemClock.elapsedRealtime();
+        }
+
+        public void progressChanged(int progress) {
+            if (!loading)
+                return;
+            for (int m = 0; m < PROGRESS_MILESTONES.length; m++)
+                if (progress >= PROGRESS_MILESTONES[m] && progressMillis[m] < 0)
+                    progressMillis[m] = (int) (SystemClock.elapsedRealtime() - navigationStart);
+        }
+
+        public void resourceLoaded() {
+            if (loading)
+                resourceCount++;
+        }
+
+        public void error(int errorCode) {
+            if (loading)
+                this.errorCode = errorCode;
+        }
+
+        public void pageFinished(String url) {
+            if (!loading || pageStart == 0)
+                return;
+            this.url = url;
+            loading = false;
+            record(this, SystemClock.elapsedRealtime());
+        }
+
+        private void reset(String url) {
+            loading = true;
+            knownStart = false;
+            navigationStart = SystemClock.elapsedRealtime();
+            pageStart = 0;
+            this.url = url;
+            Arrays.fill(progressMillis, -1);
+            resourceCount = 0;
+            errorCode = 0;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package dk.itu.kiosker.web;
+
+import android.util.Log;
+import android.webkit.CookieManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import dk.itu.kiosker.models.Constants;
+
+/**
+ * Finds out if the main document of a pane has changed since it was last checked, without loading it in the web view.
+ * The document is requested with the ETag and Last-Modified validators of the last check, so an unchanged
+ * document costs a 304 response. Servers that send no validators are compared by a hash of the document.
+ * Checks make network requests, so they must not be made on the main thread.
+ */
+public class PageRevalidator {
+    private static final int TIMEOUT_MILLISECONDS = 30 * 1000;
+
+    private String url;
+    private String eTag;
+    private String lastModified;
+    private byte[] contentHash;
+
+    /**
+     * The first check of a url only records its validators, since the web view has just loaded it.
+     *
+     * @return true if the document at the url changed since the last check.
+     * @throws IOException if the document could not be requested.
+     */
+    public synchronized boolean hasChanged(String url, String userAgent) throws IOException {
+        boolean known = url.equals(this.url);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLISECONDS);
+            connection.setReadTimeout(TIMEOUT_MILLISECONDS);
+            if (userAgent != null)
+                connection.setRequestProperty("User-Agent", userAgent);
+            String cookies = CookieManager.getInstance().getCookie(url);
+            if (cookies != null)
+                connection.setRequestProperty("Cookie", cookies);
+            if (known && eTag != null)
+                connection.setRequestProperty("If-None-Match", eTag);
+            if (known && lastModified != null)
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && known)
+                return false;
+            if (status != HttpURLConnection.HTTP_OK) {
+                // A failing page is left to the web view and its error handling, reloading would not help.
+                Log.d(Constants.TAG, String.format("Revalidating %s returned %d.", url, status));
+                return false;
+            }
+
+            String newETag = connection.getHeaderField("ETag");
+            String newLastModified = connection.getHeaderField("Last-Modified");
+            byte[] newContentHash = hash(connection.getInputStream());
+            boolean changed;
+            if (!known)
+                changed = false;
+            else if (eTag != null && newETag != null)
+                changed = !eTag.equals(newETag);
+            else if (lastModified != null && newLastModified != null)
+                changed = !lastModified.equals(newLastModified);
+            else
+                changed = !Arrays.equals(contentHash, newContentHash);
+
+            this.url = url;
+            eTag = newETag;
+            lastModified = newLastModified;
+            contentHash = newContentHash;
+            return changed;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] hash(InputStream in) throws IOException {
+        try {
+            MessageDigest crypt = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                crypt.update(buffer, 0, read);
+            return crypt.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } finally {
+            in.close();
+        }
+    }
+}
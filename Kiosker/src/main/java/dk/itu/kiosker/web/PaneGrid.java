@@ -0,0 +1,67 @@
+package dk.itu.kiosker.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import dk.itu.kiosker.utils.WebHelper;
+
+/**
+ * The panes of the screen, each showing its own pages in a cell of a grid.
+ * The rows and columns share the screen by their weights and a pane may span several of them.
+ * The first pane is the home pane, no two panes share a cell.
+ */
+public class PaneGrid {
+    public final float[] rowWeights;
+    public final float[] columnWeights;
+    public final List<Pane> panes;
+
+    public PaneGrid(float[] rowWeights, float[] columnWeights, List<Pane> panes) {
+        this.rowWeights = rowWeights;
+        this.columnWeights = columnWeights;
+        this.panes = Collections.unmodifiableList(new ArrayList<>(panes));
+    }
+
+    /**
+     * @param home  the home pane, in the first cell.
+     * @param sites the sites pane, moved below the home pane.
+     * @return the grid of the fixed layouts used before grids, the home pane above the sites pane.
+     */
+    public static PaneGrid fromLayout(int layout, Pane home, Pane sites) {
+        float homeWeight = WebHelper.layoutTranslator(layout, true);
+        float sitesWeight = WebHelper.layoutTranslator(layout, false);
+        ArrayList<Pane> panes = new ArrayList<>();
+        if (!home.pages.isEmpty())
+            panes.add(home);
+        // The full screen layout has no room for the sites pane.
+        if (!sites.pages.isEmpty() && sitesWeight > 0)
+            panes.add(new Pane(panes.size(), 0, 1, 1, sites.pages, sites.cacheMins, sites.reloadMode));
+        float[] rowWeights = panes.size() == 2 ? new float[]{homeWeight, sitesWeight} : new float[]{1};
+        return new PaneGrid(rowWeights, new float[]{1}, panes);
+    }
+
+    public static class Pane {
+        public final int row;
+        public final int column;
+        public final int rowSpan;
+        public final int columnSpan;
+        public final List<WebPage> pages;
+        public final int cacheMins;
+        public final String reloadMode;
+
+        /**
+         * @param pages      the pages of the pane, the first is shown when the pane is created.
+         * @param cacheMins  how long pages of the pane are fresh in the offline cache.
+         * @param reloadMode how the pane is reloaded every reloadPeriodMins, one of the reload modes of the settings.
+         */
+        public Pane(int row, int column, int rowSpan, int columnSpan, List<WebPage> pages, int cacheMins, String reloadMode) {
+            this.row = row;
+            this.column = column;
+            this.rowSpan = rowSpan;
+            this.columnSpan = columnSpan;
+            this.pages = pages;
+            this.cacheMins = cacheMins;
+            this.reloadMode = reloadMode;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package dk.itu.kiosker.web;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Lays out the panes of a {@link PaneGrid} as the flat children of one view group.
+ * Every child is placed in the cell given by its layout params and measured once, exactly to that cell,
+ * so the web view of a pane, the navigation above it and the web views loading behind it share the cell
+ * without a layout of their own. Children in the same cell are drawn in the order they were added.
+ */
+public class PaneGridLayout extends ViewGroup {
+    private final float[] rowWeights;
+    private final float[] columnWeights;
+    // The offsets of the edges of the rows and columns from the last measure, one more than there are rows or columns.
+    private final int[] rowEdges;
+    private final int[] columnEdges;
+
+    public PaneGridLayout(Context context, PaneGrid grid) {
+        super(context);
+        rowWeights = grid.rowWeights;
+        columnWeights = grid.columnWeights;
+        rowEdges = new int[rowWeights.length + 1];
+        columnEdges = new int[columnWeights.length + 1];
+    }
+
+    /**
+     * Adds the view behind a view already in the grid, in the same cell.
+     */
+    public void addBehind(View view, View paneView) {
+        addView(view, indexOfChild(paneView), new LayoutParams((LayoutParams) paneView.getLayoutParams()));
+    }
+
+    /**
+     * Moves the view to a cell covering the whole grid.
+     */
+    public void fillGrid(View view) {
+        view.setLayoutParams(new LayoutParams(0, 0, rowWeights.length, columnWeights.length));
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+        computeEdges(columnWeights, columnEdges, width - getPaddingLeft() - getPaddingRight());
+        computeEdges(rowWeights, rowEdges, height - getPaddingTop() - getPaddingBottom());
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() == GONE)
+                continue;
+            LayoutParams params = (LayoutParams) child.getLayoutParams();
+            int cellWidth = columnEdges[params.column + params.columnSpan] - columnEdges[params.column];
+            int cellHeight = rowEdges[params.row + params.rowSpan] - rowEdges[params.row];
+            child.measure(MeasureSpec.makeMeasureSpec(cellWidth, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(cellHeight, MeasureSpec.EXACTLY));
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() == GONE)
+                continue;
+            LayoutParams params = (LayoutParams) child.getLayoutParams();
+            int left = getPaddingLeft() + columnEdges[params.column];
+            int top = getPaddingTop() + rowEdges[params.row];
+            child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+        }
+    }
+
+    // Rounding the running sum rather than each size keeps the cells adding up to the whole size.
+    static void computeEdges(float[] weights, int[] edges, int size) {
+        float total = 0;
+        for (float weight : weights)
+            total += weight;
+        float sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            edges[i + 1] = Math.round(size * sum / total);
+        }
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams params) {
+        return params instanceof LayoutParams;
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(0, 0, 1, 1);
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams params) {
+        return params instanceof LayoutParams ? new LayoutParams((LayoutParams) params) : generateDefaultLayoutParams();
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        return false;
+    }
+
+    /**
+     * The cell of a child, the size of the child always is the size of the cell.
+     */
+    public static class LayoutParams extends ViewGroup.LayoutParams {
+        final int row;
+        final int column;
+        final int rowSpan;
+        final int columnSpan;
+
+        public LayoutParams(int row, int column, int rowSpan, int columnSpan) {
+            super(MATCH_PARENT, MATCH_PARENT);
+            this.row = row;
+            this.column = column;
+            this.rowSpan = rowSpan;
+            this.columnSpan = columnSpan;
+        }
+
+        public LayoutParams(PaneGrid.Pane pane) {
+            this(pane.row, pane.column, pane.rowSpan, pane.columnSpan);
+        }
+
+        public LayoutParams(LayoutParams source) {
+            this(source.row, source.column, source.rowSpan, source.columnSpan);
+        }
+    }
+}
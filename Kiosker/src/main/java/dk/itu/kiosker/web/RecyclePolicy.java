@@ -0,0 +1,57 @@
+package dk.itu.kiosker.web;
+
+import java.util.concurrent.TimeUnit;
+
+import dk.itu.kiosker.models.KioskSettings;
+
+/**
+ * Decides when a web view has run long enough to be replaced by a new one.
+ * A page left running for weeks, a single page app in particular, keeps growing the memory of its web view
+ * and only a new web view gives it back. A limit of 0 is not checked.
+ */
+public class RecyclePolicy {
+    // Once replaced because the app uses too much memory, a web view is not blamed again for this long.
+    private static final long MIN_AGE_FOR_MEMORY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private final long maxAgeMillis;
+    private final int maxNavigations;
+    private final long maxPssKb;
+
+    public RecyclePolicy(KioskSettings settings) {
+        maxAgeMillis = TimeUnit.HOURS.toMillis(settings.recycleAfterHours);
+        maxNavigations = settings.recycleAfterNavigations;
+        maxPssKb = settings.recycleAboveMemoryMB * 1024L;
+    }
+
+    public boolean isEnabled() {
+        return maxAgeMillis > 0 || maxNavigations > 0 || watchesMemory();
+    }
+
+    public boolean watchesMemory() {
+        return maxPssKb > 0;
+    }
+
+    /**
+     * @return why the web view should be replaced because of its age or navigations, or null if it can stay.
+     */
+    public String getReason(KioskerWebView webView) {
+        if (maxAgeMillis > 0 && webView.getAgeMillis() >= maxAgeMillis)
+            return String.format("it is %d hours old", TimeUnit.MILLISECONDS.toHours(webView.getAgeMillis()));
+        if (maxNavigations > 0 && webView.getNavigations() >= maxNavigations)
+            return String.format("it has made %d navigations", webView.getNavigations());
+        return null;
+    }
+
+    /**
+     * @param pssKb the proportional set size of the app, which includes the web views.
+     */
+    public boolean isOverMemory(long pssKb) {
+        return watchesMemory() && pssKb >= maxPssKb;
+    }
+
+    /**
+     * @return true if the web view is old enough to be replaced when the app uses too much memory.
+     */
+    public boolean mayRecycleForMemory(KioskerWebView webView) {
+        return webView.getAgeMillis() >= MIN_AGE_FOR_MEMORY_MILLIS;
+    }
+}
@@ -0,0 +1,219 @@
+package dk.itu.kiosker.web;
+
+import android.content.Context;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.itu.kiosker.models.Constants;
+import dk.itu.kiosker.models.KioskSettings;
+import rx.Observable;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Blocks the requests of the web views matching the rules file in the filterRulesUrl setting,
+ * so trackers, ads and heavy third parties on pages we don't control are never downloaded.
+ * The rules file is kept on the device, so the rules apply from the start even when the server is down,
+ * and downloaded again whenever the settings are applied. See {@link HostMatcher} for the rules syntax.
+ */
+public class RequestFilter {
+    private static final String RULES_FILE_NAME = "request_filter.txt";
+    private static final String META_FILE_NAME = "request_filter.meta";
+    private static final int TIMEOUT_MILLISECONDS = 30 * 1000;
+    private static RequestFilter instance;
+
+    private final File rulesFile;
+    private final File metaFile;
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private volatile HostMatcher matcher;
+    private volatile String url = "";
+
+    public static synchronized RequestFilter getInstance(Context context) {
+        if (instance == null)
+            instance = new RequestFilter(context.getApplicationContext());
+        return instance;
+    }
+
+    private RequestFilter(Context context) {
+        rulesFile = new File(context.getFilesDir(), RULES_FILE_NAME);
+        metaFile = new File(context.getFilesDir(), META_FILE_NAME);
+    }
+
+    /**
+     * Called every time settings are applied, the rules are only downloaded again if they changed since the last download.
+     */
+    public void handleFilterSettings(KioskSettings settings) {
+        String newUrl = getUrl(settings.filterRulesUrl);
+        if (!newUrl.equals(url))
+            matcher = null;
+        url = newUrl;
+        if (url.isEmpty()) {
+            matcher = null;
+            rulesFile.delete();
+            metaFile.delete();
+            return;
+        }
+        final String rulesUrl = url;
+        Observable.from(rulesUrl).subscribeOn(Schedulers.io()).subscribe(new Action1<String>() {
+            @Override
+            public void call(String rulesUrl) {
+                update(rulesUrl);
+            }
+        });
+    }
+
+    // Relative urls are resolved against the base url of the json settings.
+    private static String getUrl(String filterRulesUrl) {
+        if (filterRulesUrl.isEmpty() || filterRulesUrl.startsWith("http://") || filterRulesUrl.startsWith("https://"))
+            return filterRulesUrl;
+        return Constants.JSON_BASE_URL + "/" + filterRulesUrl;
+    }
+
+    /**
+     * @return true if the url should not be loaded, safe to call from any thread.
+     */
+    public boolean shouldBlock(String url) {
+        HostMatcher current = matcher;
+        return current != null && current.isBlocked(url);
+    }
+
+    /**
+     * @return an empty response to give the web view in place of a blocked request.
+     */
+    public WebResourceResponse blockedResponse() {
+        return new WebResourceResponse("text/plain", "UTF-8", new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * @return the counter of blocked requests for a pane, shared by the web views showing the pane.
+     */
+    public synchronized Counter getCounter(String pane) {
+        Counter counter = counters.get(pane);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(pane, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * @return the rules in use and the requests blocked in each pane, or an empty string if nothing is filtered.
+     */
+    public synchronized String getStatus() {
+        HostMatcher current = matcher;
+        if (current == null)
+            return "";
+        String status = "Request filter: " + current.getRuleCount() + " rules from " + url + ".";
+        for (Map.Entry<String, Counter> counter : counters.entrySet())
+            status += "\nBlocked in " + counter.getKey() + ": " + counter.getValue().getBlockedRequests() + " requests.";
+        return status;
+    }
+
+    /**
+     * Uses the rules on the device right away, then downloads them again if they changed on the server.
+     */
+    private void update(String rulesUrl) {
+        String eTag = null;
+        if (rulesFile.exists() && metaFile.exists()) {
+            try {
+                BufferedReader meta = new BufferedReader(new FileReader(metaFile));
+                try {
+                    if (rulesUrl.equals(meta.readLine())) {
+                        eTag = meta.readLine();
+                        if (matcher == null)
+                            use(rulesUrl, HostMatcher.compile(new InputStreamReader(new FileInputStream(rulesFile), "UTF-8")));
+                    }
+                } finally {
+                    meta.close();
+                }
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "Error while reading the request filter rules on the device.", e);
+            }
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(rulesUrl).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLISECONDS);
+            connection.setReadTimeout(TIMEOUT_MILLISECONDS);
+            if (eTag != null && !eTag.isEmpty())
+                connection.setRequestProperty("If-None-Match", eTag);
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+                return;
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Downloading the request filter rules returned " + status);
+
+            File temp = new File(rulesFile.getParentFile(), RULES_FILE_NAME + ".tmp");
+            copy(connection.getInputStream(), temp);
+            HostMatcher downloaded = HostMatcher.compile(new InputStreamReader(new FileInputStream(temp), "UTF-8"));
+            if (!temp.renameTo(rulesFile)) {
+                temp.delete();
+                throw new IOException("Could not rename " + temp + " to " + rulesFile);
+            }
+            FileWriter meta = new FileWriter(metaFile);
+            try {
+                String newETag = connection.getHeaderField("ETag");
+                meta.write(rulesUrl + "\n" + (newETag == null ? "" : newETag) + "\n");
+            } finally {
+                meta.close();
+            }
+            use(rulesUrl, downloaded);
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Error while downloading the request filter rules.", e);
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    private void use(String rulesUrl, HostMatcher compiled) {
+        // The settings may have changed to another rules file while these were loading.
+        if (!rulesUrl.equals(url))
+            return;
+        matcher = compiled;
+        Log.d(Constants.TAG, "Filtering requests with " + compiled.getRuleCount() + " rules from " + rulesUrl);
+    }
+
+    private static void copy(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    public static class Counter {
+        private final AtomicInteger blockedRequests = new AtomicInteger();
+
+        public void countBlocked() {
+            blockedRequests.incrementAndGet();
+        }
+
+        public int getBlockedRequests() {
+            return blockedRequests.get();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package dk.itu.kiosker.web;
+
+import android.webkit.WebView;
+
+import java.util.concurrent.TimeUnit;
+
+import dk.itu.kiosker.activities.KioskerActivity;
+import rx.Observable;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+
+/**
+ * Delivers the samples of a sensor to a javascript function of the page, at most at the rate the page asks for.
+ * The function is called with the values of the sample followed by the device id.
+ * Samples arriving between deliveries are coalesced into the latest sample, or their average,
+ * so a fast sensor never runs more javascript than the page can use.
+ * Samples offered while the web view is hidden or paused, or the device is in standby, are dropped.
+ * Samples are offered and delivered on the main thread, delivery may be stopped and configured from any thread.
+ */
+public class SensorDelivery {
+    public static final int DEFAULT_MAX_RATE = 4;
+    private static final int MAX_RATE = 60;
+
+    private final KioskerActivity kioskerActivity;
+    private final String function;
+    private final String deviceId;
+    private WebView view;
+    private volatile long minIntervalMillis = 1000 / DEFAULT_MAX_RATE;
+    private volatile boolean averaging;
+    private float[] latest;
+    private double[] sums;
+    private int count;
+    private long lastDeliveredAt;
+    private Subscription scheduledDelivery;
+
+    /**
+     * @param function the javascript function called with the values and the device id.
+     * @param deviceId the device id as a javascript string literal.
+     */
+    public SensorDelivery(KioskerActivity kioskerActivity, String function, String deviceId) {
+        this.kioskerActivity = kioskerActivity;
+        this.function = function;
+        this.deviceId = deviceId;
+    }
+
+    public void setView(WebView view) {
+        this.view = view;
+    }
+
+    /**
+     * @param updatesPerSecond the most deliveries per second, 0 or less for the default.
+     */
+    public void setMaxRate(int updatesPerSecond) {
+        int rate = updatesPerSecond <= 0 ? DEFAULT_MAX_RATE : Math.min(updatesPerSecond, MAX_RATE);
+        minIntervalMillis = 1000 / rate;
+    }
+
+    /**
+     * @param averaging deliver the average of the samples since the last delivery instead of the latest sample.
+     */
+    public void setAveraging(boolean averaging) {
+        this.averaging = averaging;
+    }
+
+    public synchronized void offer(float... values) {
+        if (!isVisible())
+            return;
+        if (latest == null || latest.length != values.length) {
+            latest = new float[values.length];
+            sums = new double[values.length];
+            count = 0;
+        }
+        // The sensor manager reuses the array of its events, so the values are copied.
+        for (int i = 0; i < values.length; i++) {
+            latest[i] = values[i];
+            sums[i] += values[i];
+        }
+        count++;
+        if (scheduledDelivery != null && !scheduledDelivery.isUnsubscribed())
+            return;
+        long delay = lastDeliveredAt + minIntervalMillis - System.currentTimeMillis();
+        if (delay <= 0) {
+            deliver();
+            return;
+        }
+        scheduledDelivery = Observable.timer(delay, TimeUnit.MILLISECONDS).observeOn(AndroidSchedulers.mainThread()).subscribe(new Action1<Long>() {
+            @Override
+            public void call(Long aLong) {
+                deliver();
+            }
+        });
+    }
+
+    /**
+     * Drops the samples waiting to be delivered.
+     */
+    public synchronized void stop() {
+        if (scheduledDelivery != null)
+            scheduledDelivery.unsubscribe();
+        reset();
+    }
+
+    private synchronized void deliver() {
+        if (count == 0)
+            return;
+        // The web view may have been hidden since the delivery was scheduled, dropping the samples then
+        // counts as a delivery so the rate still holds.
+        lastDeliveredAt = System.currentTimeMillis();
+        if (!isVisible()) {
+            reset();
+            return;
+        }
+        StringBuilder call = new StringBuilder(function).append('(');
+        for (int i = 0; i < latest.length; i++)
+            call.append(averaging ? sums[i] / count : latest[i]).append(',');
+        call.append(deviceId).append(')');
+        reset();
+        view.evaluateJavascript(call.toString(), null);
+    }
+
+    private boolean isVisible() {
+        if (view == null || !view.isShown() || kioskerActivity.currentlyInStandbyPeriod)
+            return false;
+        return !(view instanceof KioskerWebView && ((KioskerWebView) view).isPaused());
+    }
+
+    private void reset() {
+        if (sums != null)
+            for (int i = 0; i < sums.length; i++)
+                sums[i] = 0;
+        count = 0;
+    }
+}
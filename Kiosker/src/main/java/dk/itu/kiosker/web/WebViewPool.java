@@ -0,0 +1,145 @@
+package dk.itu.kiosker.web;
+
+import android.annotation.SuppressLint;
+import android.view.View;
+import android.view.ViewGroup;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import dk.itu.kiosker.activities.KioskerActivity;
+import dk.itu.kiosker.models.KioskSettings;
+
+/**
+ * Keeps the web views of the panes for reuse, since building a web view is the most expensive thing the app does.
+ * A released web view is reset to a blank page without sensors, javascript interfaces or listeners
+ * and handed out again to the same pane slot, its history is cleared when the next page finishes loading.
+ * Web views are only destroyed when the pool is full or trimmed, or when the recycle policy finds them worn.
+ */
+public class WebViewPool {
+    // Up to four panes, the prerendering web view behind the secondary pane and the screen saver.
+    public static final int MAX_POOLED_WEB_VIEWS = 6;
+    private final KioskerActivity kioskerActivity;
+    private final KioskerWebChromeClient chromeClient = new KioskerWebChromeClient();
+    private final Map<Integer, KioskerWebView> pooledWebViews = new HashMap<>();
+    private RecyclePolicy recyclePolicy;
+
+    public WebViewPool(KioskerActivity kioskerActivity) {
+        this.kioskerActivity = kioskerActivity;
+    }
+
+    /**
+     * @param recyclePolicy decides when a pooled web view is too worn to hand out again, null to reuse them all.
+     */
+    public void setRecyclePolicy(RecyclePolicy recyclePolicy) {
+        this.recyclePolicy = recyclePolicy;
+    }
+
+    /**
+     * @param slot     the pane the web view is for.
+     * @param settings the settings for the web view client.
+     * @return a web view from the pool, or a new one if the pool has none for the slot or the one it has is worn.
+     */
+    public KioskerWebView acquire(int slot, KioskSettings settings) {
+        KioskerWebView webView = pooledWebViews.remove(slot);
+        if (webView != null && recyclePolicy != null && recyclePolicy.getReason(webView) != null) {
+            webView.destroy();
+            webView = null;
+        }
+        if (webView == null)
+            webView = create();
+        else
+            webView.onResume();
+        return attachClient(webView, settings);
+    }
+
+    /**
+     * @param settings the settings for the web view client.
+     * @return a new web view, never one from the pool.
+     */
+    public KioskerWebView acquireNew(KioskSettings settings) {
+        return attachClient(create(), settings);
+    }
+
+    private KioskerWebView attachClient(KioskerWebView webView, KioskSettings settings) {
+        // The client holds the state of the pages it has loaded, so every use gets a new one.
+        KioskerWebViewClient client = new KioskerWebViewClient(settings, kioskerActivity);
+        webView.client = client;
+        webView.setWebViewClient(client);
+        return webView;
+    }
+
+    /**
+     * Resets the web view and keeps it for the slot, or destroys it if the pool is full or the web view is worn.
+     */
+    public void release(int slot, KioskerWebView webView) {
+        reset(webView);
+        boolean worn = recyclePolicy != null && recyclePolicy.getReason(webView) != null;
+        if (worn || pooledWebViews.containsKey(slot) || pooledWebViews.size() >= MAX_POOLED_WEB_VIEWS)
+            webView.destroy();
+        else
+            pooledWebViews.put(slot, webView);
+    }
+
+    /**
+     * Resets and destroys the web view without keeping it, for web views that have been replaced because they are worn.
+     */
+    public void discard(KioskerWebView webView) {
+        reset(webView);
+        webView.destroy();
+    }
+
+    /**
+     * Destroys the web views that are not in use, called when memory runs low.
+     */
+    public void trim() {
+        for (KioskerWebView webView : pooledWebViews.values())
+            webView.destroy();
+        pooledWebViews.clear();
+    }
+
+    /**
+     * @return the number of web views kept for reuse.
+     */
+    public int size() {
+        return pooledWebViews.size();
+    }
+
+    @SuppressLint("SetJavaScriptEnabled")
+    private KioskerWebView create() {
+        WebView.setWebContentsDebuggingEnabled(true);
+        KioskerWebView webView = new KioskerWebView(kioskerActivity);
+        webView.setWebChromeClient(chromeClient);
+
+        // Disable hardware acceleration because of rendering bug in Kit Kat. Sometimes it would throw "W/AwContents﹕ nativeOnDraw failed; clearing to background color." errors.
+//        webView.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+
+        WebSettings webSettings = webView.getSettings();
+        webSettings.setJavaScriptEnabled(true);
+        webSettings.setBuiltInZoomControls(true);
+        webSettings.setDisplayZoomControls(false);
+        webSettings.setDomStorageEnabled(true);
+        webSettings.setAppCacheEnabled(true);
+        webSettings.setDatabaseEnabled(true);
+        return webView;
+    }
+
+    private void reset(KioskerWebView webView) {
+        webView.stopLoading();
+        webView.stopSensors();
+        webView.removeJavascriptInterface(KioskerWebViewClient.SENSOR_BRIDGE_NAME);
+        webView.setOnTouchListener(null);
+        webView.setVisibility(View.VISIBLE);
+        ViewGroup parent = (ViewGroup) webView.getParent();
+        if (parent != null)
+            parent.removeView(webView);
+        // The blank page must not reach the old client, it would take it for the home page.
+        webView.client = null;
+        webView.setWebViewClient(new WebViewClient());
+        webView.loadUrl("about:blank");
+        webView.onPause();
+    }
+}
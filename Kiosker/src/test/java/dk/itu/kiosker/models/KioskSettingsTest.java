@@ -0,0 +1,46 @@
+package dk.itu.kiosker.models;
+
+import org.junit.Test;
+
+import dk.itu.kiosker.web.PaneGrid;
+
+import static org.junit.Assert.assertEquals;
+
+public class KioskSettingsTest {
+    private static final String PAGES = "\"pages\": [{\"url\": \"http://example.com/\"}]";
+
+    @Test
+    public void panesFallBackToTheCacheTimeAndReloadModeOfHomeAndSites() throws Exception {
+        KioskSettings settings = KioskSettings.parse("{\"homeCacheMins\": 1, \"sitesCacheMins\": 2, \"homeReloadMode\": \"ifChanged\", \"sitesReloadMode\": \"always\", "
+                + "\"grid\": {\"rows\": 1, \"columns\": 3, \"panes\": [{" + PAGES + "}, {\"column\": 1, " + PAGES + "}, {\"column\": 2, " + PAGES + "}]}}");
+        PaneGrid.Pane home = settings.grid.panes.get(0);
+        assertEquals(1, home.cacheMins);
+        assertEquals(KioskSettings.RELOAD_IF_CHANGED, home.reloadMode);
+        for (int i = 1; i < 3; i++) {
+            assertEquals(2, settings.grid.panes.get(i).cacheMins);
+            assertEquals(KioskSettings.RELOAD_ALWAYS, settings.grid.panes.get(i).reloadMode);
+        }
+    }
+
+    @Test
+    public void panesOverrideTheCacheTimeAndReloadModeOfHomeAndSites() throws Exception {
+        KioskSettings settings = KioskSettings.parse("{\"homeCacheMins\": 1, \"sitesCacheMins\": 2, "
+                + "\"grid\": {\"rows\": 1, \"columns\": 2, \"panes\": [{\"cacheMins\": 0, " + PAGES + "}, {\"column\": 1, \"cacheMins\": 30, \"reloadMode\": \"ifChanged\", " + PAGES + "}]}}");
+        assertEquals(0, settings.grid.panes.get(0).cacheMins);
+        assertEquals(KioskSettings.RELOAD_ALWAYS, settings.grid.panes.get(0).reloadMode);
+        assertEquals(30, settings.grid.panes.get(1).cacheMins);
+        assertEquals(KioskSettings.RELOAD_IF_CHANGED, settings.grid.panes.get(1).reloadMode);
+    }
+
+    @Test
+    public void layoutsGiveHomeAndSitesPanesTheirSettings() throws Exception {
+        KioskSettings settings = KioskSettings.parse("{\"layout\": 1, \"homeCacheMins\": 1, \"sitesCacheMins\": 2, \"sitesReloadMode\": \"ifChanged\", "
+                + "\"home\": [{\"url\": \"http://example.com/home\"}], \"sites\": [{\"url\": \"http://example.com/sites\"}]}");
+        assertEquals(2, settings.grid.panes.size());
+        assertEquals(1, settings.grid.panes.get(0).cacheMins);
+        assertEquals(KioskSettings.RELOAD_ALWAYS, settings.grid.panes.get(0).reloadMode);
+        assertEquals(1, settings.grid.panes.get(1).row);
+        assertEquals(2, settings.grid.panes.get(1).cacheMins);
+        assertEquals(KioskSettings.RELOAD_IF_CHANGED, settings.grid.panes.get(1).reloadMode);
+    }
+}
@@ -0,0 +1,95 @@
+package dk.itu.kiosker.models;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PreferenceStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File file;
+    private PreferenceStore store;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "preferences.json");
+        store = new PreferenceStore(file);
+    }
+
+    @Test
+    public void readsDefaultsForMissingPreferences() {
+        assertEquals("default", store.getString("missing", "default"));
+        assertTrue(store.getBoolean("missing", true));
+        assertEquals(0.5f, store.getFloat("missing", 0.5f), 0);
+    }
+
+    @Test
+    public void readsBackWhatWasPut() {
+        store.putString("wifi", "kiosk");
+        store.putBoolean("mute", true);
+        store.putFloat("brightness", 0.8f);
+        assertEquals("kiosk", store.getString("wifi", null));
+        assertTrue(store.getBoolean("mute", false));
+        assertEquals(0.8f, store.getFloat("brightness", 0), 0);
+    }
+
+    @Test
+    public void readsDefaultsForPreferencesOfAnotherType() {
+        store.putString("mute", "yes");
+        assertFalse(store.getBoolean("mute", false));
+    }
+
+    @Test
+    public void puttingNullRemovesThePreference() {
+        store.putString("password", "secret");
+        store.putString("password", null);
+        assertNull(store.getString("password", null));
+        // Removing a missing preference is fine too.
+        store.putString("missing", null);
+        store.flush();
+        assertNull(new PreferenceStore(file).getString("password", null));
+    }
+
+    @Test
+    public void flushWritesTheChangesToTheFile() {
+        store.putString("wifi", "kiosk");
+        store.putFloat("brightness", 0.8f);
+        assertFalse(file.exists());
+        store.flush();
+        PreferenceStore reopened = new PreferenceStore(file);
+        assertEquals("kiosk", reopened.getString("wifi", null));
+        assertEquals(0.8f, reopened.getFloat("brightness", 0), 0.0001);
+    }
+
+    @Test
+    public void puttingTheStoredValueWritesNothing() {
+        store.putString("wifi", "kiosk");
+        store.putBoolean("mute", true);
+        store.putFloat("brightness", 0.8f);
+        store.flush();
+        PreferenceStore reopened = new PreferenceStore(file);
+        assertTrue(file.delete());
+        reopened.putString("wifi", "kiosk");
+        reopened.putBoolean("mute", true);
+        reopened.putFloat("brightness", 0.8f);
+        reopened.flush();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void writesChangesBehindInTheBackground() throws InterruptedException {
+        store.putString("wifi", "kiosk");
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (!file.exists() && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        assertEquals("kiosk", new PreferenceStore(file).getString("wifi", null));
+    }
+}
@@ -0,0 +1,112 @@
+package dk.itu.kiosker.models;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SettingsStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private SettingsStore store;
+
+    @Before
+    public void setUp() {
+        store = new SettingsStore(folder.getRoot());
+    }
+
+    @Test
+    public void savesVersionsNewestFirst() throws Exception {
+        assertTrue(store.isEmpty());
+        assertTrue(store.save(settings(1)));
+        assertTrue(store.save(settings(2)));
+        List<SettingsStore.Version> versions = store.getVersions();
+        assertEquals(2, versions.size());
+        assertEquals(2, versions.get(0).version);
+        assertEquals("{\"layout\":2}", store.loadJson());
+    }
+
+    @Test
+    public void savingStoredSettingsMovesThemToTheFront() throws Exception {
+        store.save(settings(1));
+        store.save(settings(2));
+        assertFalse(store.save(settings(1)));
+        assertEquals(2, store.getVersions().size());
+        assertEquals("{\"layout\":1}", store.loadJson());
+    }
+
+    @Test
+    public void keepsAtMostMaxVersions() throws Exception {
+        for (int i = 0; i < SettingsStore.MAX_VERSIONS + 2; i++)
+            store.save(settings(i));
+        assertEquals(SettingsStore.MAX_VERSIONS, store.getVersions().size());
+        assertEquals(SettingsStore.MAX_VERSIONS + 1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void rollbackRejectsTheNewestSettings() throws Exception {
+        store.save(settings(1));
+        store.save(settings(2));
+        assertTrue(store.rollback(1));
+        assertEquals("{\"layout\":1}", store.loadJson());
+        assertTrue(store.isRejected(settings(2)));
+        assertFalse(store.isRejected(settings(1)));
+        assertFalse(store.rollback(7));
+    }
+
+    @Test
+    public void savingTheRolledBackVersionKeepsTheRejection() throws Exception {
+        store.save(settings(1));
+        store.save(settings(2));
+        store.rollback(1);
+        // Applying the safe settings after the rollback saves them again.
+        assertFalse(store.save(settings(1)));
+        assertTrue(store.isRejected(settings(2)));
+    }
+
+    @Test
+    public void newSettingsClearTheRejection() throws Exception {
+        store.save(settings(1));
+        store.save(settings(2));
+        store.rollback(1);
+        assertTrue(store.save(settings(3)));
+        assertFalse(store.isRejected(settings(2)));
+    }
+
+    @Test
+    public void rejectionSurvivesReopening() throws Exception {
+        store.save(settings(1));
+        store.save(settings(2));
+        store.rollback(1);
+        SettingsStore reopened = new SettingsStore(folder.getRoot());
+        assertTrue(reopened.isRejected(settings(2)));
+        assertEquals("{\"layout\":1}", reopened.loadJson());
+    }
+
+    @Test
+    public void skipsCorruptVersions() throws Exception {
+        store.save(settings(1));
+        store.save(settings(2));
+        FileOutputStream out = new FileOutputStream(new File(folder.getRoot(), "settings-2" + Constants.FILE_ENDING));
+        out.write("{\"layout\":".getBytes("UTF-8"));
+        out.close();
+        assertNull(store.loadJson(store.getVersions().get(0)));
+        assertEquals("{\"layout\":1}", store.loadJson());
+    }
+
+    private static LinkedHashMap settings(int layout) {
+        LinkedHashMap settings = new LinkedHashMap();
+        settings.put("layout", layout);
+        return settings;
+    }
+}
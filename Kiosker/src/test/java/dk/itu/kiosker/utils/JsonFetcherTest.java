@@ -0,0 +1,148 @@
+package dk.itu.kiosker.utils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Runs the fetcher against a local server standing in for the settings server.
+public class JsonFetcherTest {
+    private static final String DOCUMENT = "{\"layout\": 1, \"home\": [{\"url\": \"http://example.com/\", \"title\": \"Home\"}]}";
+    private HttpServer server;
+    private JsonFetcher fetcher;
+    // The responses the server sends, in order, and the headers of the requests it got.
+    private final LinkedList<Reply> replies = new LinkedList<>();
+    private final List<Headers> requests = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Reply reply;
+                synchronized (replies) {
+                    requests.add(exchange.getRequestHeaders());
+                    reply = replies.removeFirst();
+                }
+                exchange.getResponseHeaders().putAll(reply.headers);
+                byte[] body = reply.body == null ? new byte[0] : reply.body;
+                exchange.sendResponseHeaders(reply.status, reply.body == null ? -1 : body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        fetcher = new JsonFetcher("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void requestsAndDecompressesGzip() throws IOException {
+        replies.add(new Reply(200, gzip(DOCUMENT)).header("Content-Encoding", "gzip").header("ETag", "\"1\""));
+        assertEquals(1, fetch().get("layout"));
+        assertEquals("gzip", requests.get(0).getFirst("Accept-Encoding"));
+        assertNull(requests.get(0).getFirst("A-IM"));
+    }
+
+    @Test
+    public void appliesJsonPatchDeltas() throws IOException {
+        replies.add(new Reply(200, DOCUMENT.getBytes("UTF-8")).header("ETag", "\"1\""));
+        replies.add(new Reply(226, "[{\"op\": \"replace\", \"path\": \"/layout\", \"value\": 2}]".getBytes("UTF-8")).header("IM", "json-patch").header("ETag", "\"2\""));
+        replies.add(new Reply(226, "[{\"op\": \"remove\", \"path\": \"/home/0\"}]".getBytes("UTF-8")).header("IM", "json-patch").header("ETag", "\"3\""));
+        fetch();
+        LinkedHashMap settings = fetch();
+        assertEquals("\"1\"", requests.get(1).getFirst("If-None-Match"));
+        assertEquals("json-patch", requests.get(1).getFirst("A-IM"));
+        assertEquals(2, settings.get("layout"));
+        assertEquals(1, ((List) settings.get("home")).size());
+        // The next patch applies to the patched document.
+        settings = fetch();
+        assertEquals("\"2\"", requests.get(2).getFirst("If-None-Match"));
+        assertEquals(2, settings.get("layout"));
+        assertTrue(((List) settings.get("home")).isEmpty());
+    }
+
+    @Test
+    public void downloadsTheWholeDocumentWhenAPatchFails() throws IOException {
+        replies.add(new Reply(200, DOCUMENT.getBytes("UTF-8")).header("ETag", "\"1\""));
+        replies.add(new Reply(226, "[{\"op\": \"remove\", \"path\": \"/missing\"}]".getBytes("UTF-8")).header("IM", "json-patch"));
+        replies.add(new Reply(200, "{\"layout\": 3}".getBytes("UTF-8")).header("ETag", "\"3\""));
+        fetch();
+        assertEquals(3, fetch().get("layout"));
+        assertNull(requests.get(2).getFirst("If-None-Match"));
+        assertNull(requests.get(2).getFirst("A-IM"));
+    }
+
+    @Test
+    public void downloadsTheWholeDocumentWhenAPatchGivesInvalidSettings() throws IOException {
+        replies.add(new Reply(200, DOCUMENT.getBytes("UTF-8")).header("ETag", "\"1\""));
+        replies.add(new Reply(226, "[{\"op\": \"replace\", \"path\": \"/layout\", \"value\": \"two\"}]".getBytes("UTF-8")).header("IM", "json-patch"));
+        replies.add(new Reply(200, "{\"layout\": 3}".getBytes("UTF-8")));
+        fetch();
+        assertEquals(3, fetch().get("layout"));
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void returnsTheLastSettingsWhenNotModified() throws IOException {
+        replies.add(new Reply(200, DOCUMENT.getBytes("UTF-8")).header("ETag", "\"1\""));
+        replies.add(new Reply(304, null));
+        fetch();
+        assertFalse(fetcher.allNotModified("settings.json"));
+        assertEquals(1, fetch().get("layout"));
+        assertTrue(fetcher.allNotModified("settings.json"));
+    }
+
+    private LinkedHashMap fetch() {
+        return fetcher.getObservableMap("settings.json").toBlocking().single();
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(text.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static class Reply {
+        final int status;
+        final byte[] body;
+        final Headers headers = new Headers();
+
+        Reply(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        Reply header(String name, String value) {
+            headers.add(name, value);
+            return this;
+        }
+    }
+}
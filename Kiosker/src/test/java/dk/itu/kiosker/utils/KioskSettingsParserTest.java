@@ -0,0 +1,101 @@
+package dk.itu.kiosker.utils;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KioskSettingsParserTest {
+    @Test
+    public void readsKnownSettingsTyped() throws Exception {
+        LinkedHashMap settings = KioskSettingsParser.parse("{\"layout\": 2, \"mute\": true, \"wifiSSID\": \"kiosk\", \"standbyStartTime\": \"22.00\"}");
+        assertEquals(2, settings.get("layout"));
+        assertEquals(true, settings.get("mute"));
+        assertEquals("kiosk", settings.get("wifiSSID"));
+        assertEquals("22.00", settings.get("standbyStartTime"));
+    }
+
+    @Test
+    public void keepsUnknownSettingsAsJsonValues() throws Exception {
+        LinkedHashMap settings = KioskSettingsParser.parse("{\"custom\": {\"list\": [1, \"two\"]}}");
+        assertEquals(1, ((List) ((LinkedHashMap) settings.get("custom")).get("list")).get(0));
+    }
+
+    @Test
+    public void skipsNullSettings() throws Exception {
+        assertFalse(KioskSettingsParser.parse("{\"layout\": null}").containsKey("layout"));
+    }
+
+    @Test
+    public void titlesWebPagesWithoutTitleByTheirUrl() throws Exception {
+        LinkedHashMap settings = KioskSettingsParser.parse("{\"home\": [{\"url\": \"http://example.com/\"}]}");
+        LinkedHashMap page = (LinkedHashMap) ((List) settings.get("home")).get(0);
+        assertEquals("http://example.com/", page.get("title"));
+    }
+
+    @Test
+    public void rejectsSettingsOfTheWrongType() throws Exception {
+        assertRejected("{\"layout\": \"2\"}", "an integer for layout");
+        assertRejected("{\"mute\": 1}", "true or false for mute");
+        assertRejected("{\"standbyStartTime\": \"late\"}", "a time");
+        assertRejected("{\"home\": [{\"title\": \"Home\"}]}", "a url for every web page");
+        assertRejected("[]", "Settings must be a json object");
+    }
+
+    @Test
+    public void defaultsTheSpansOfPanes() throws Exception {
+        LinkedHashMap settings = KioskSettingsParser.parse("{\"grid\": {\"rows\": 1, \"columns\": 2, \"panes\": [" + pane(0, 0) + ", " + pane(0, 1) + "]}}");
+        LinkedHashMap pane = (LinkedHashMap) ((List) ((LinkedHashMap) settings.get("grid")).get("panes")).get(1);
+        assertEquals(1, pane.get("rowSpan"));
+        assertEquals(1, pane.get("columnSpan"));
+    }
+
+    @Test
+    public void rejectsGridsWithoutPanes() throws Exception {
+        assertRejected("{\"grid\": {\"rows\": 1, \"columns\": 1}}", "at least one pane for grid");
+        assertRejected("{\"grid\": {\"rows\": 1, \"columns\": 1, \"panes\": []}}", "at least one pane for grid");
+    }
+
+    @Test
+    public void rejectsPanesOutsideTheGrid() throws Exception {
+        assertRejected("{\"grid\": {\"rows\": 1, \"columns\": 2, \"panes\": [" + pane(0, 2) + "]}}", "panes inside the 1 by 2 grid");
+        assertRejected("{\"grid\": {\"rows\": 2, \"columns\": 1, \"panes\": [{\"row\": 1, \"rowSpan\": 2, \"pages\": [{\"url\": \"http://example.com/\"}]}]}}", "panes inside the 2 by 1 grid");
+    }
+
+    @Test
+    public void rejectsOverlappingPanes() throws Exception {
+        assertRejected("{\"grid\": {\"rows\": 1, \"columns\": 2, \"panes\": [" + pane(0, 1) + ", " + pane(0, 1) + "]}}", "panes that do not overlap");
+        assertRejected("{\"grid\": {\"rows\": 2, \"columns\": 2, \"panes\": [{\"columnSpan\": 2, \"rowSpan\": 2, \"pages\": [{\"url\": \"http://example.com/\"}]}, " + pane(1, 1) + "]}}", "panes that do not overlap");
+    }
+
+    @Test
+    public void readsTheCacheTimeAndReloadModeOfPanes() throws Exception {
+        LinkedHashMap settings = KioskSettingsParser.parse("{\"grid\": {\"rows\": 1, \"columns\": 1, \"panes\": [{\"cacheMins\": 5, \"reloadMode\": \"ifChanged\", \"pages\": [{\"url\": \"http://example.com/\"}]}]}}");
+        LinkedHashMap pane = (LinkedHashMap) ((List) ((LinkedHashMap) settings.get("grid")).get("panes")).get(0);
+        assertEquals(5, pane.get("cacheMins"));
+        assertEquals("ifChanged", pane.get("reloadMode"));
+        assertRejected("{\"grid\": {\"rows\": 1, \"columns\": 1, \"panes\": [{\"cacheMins\": -1, \"pages\": [{\"url\": \"http://example.com/\"}]}]}}", "0 or more minutes for grid.panes.cacheMins");
+        assertRejected("{\"grid\": {\"rows\": 1, \"columns\": 1, \"panes\": [{\"reloadMode\": 1, \"pages\": [{\"url\": \"http://example.com/\"}]}]}}", "a string for grid.panes.reloadMode");
+    }
+
+    // A pane of one cell showing one page.
+    private static String pane(int row, int column) {
+        return "{\"row\": " + row + ", \"column\": " + column + ", \"pages\": [{\"url\": \"http://example.com/\"}]}";
+    }
+
+    static void assertRejected(String json, String message) throws Exception {
+        try {
+            KioskSettingsParser.parse(json);
+            fail("Parsed " + json);
+        } catch (JsonParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
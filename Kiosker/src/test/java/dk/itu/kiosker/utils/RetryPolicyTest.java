@@ -0,0 +1,70 @@
+package dk.itu.kiosker.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    @Test
+    public void opensAfterTheFailureThreshold() {
+        RetryPolicy policy = new RetryPolicy(5, 600, 3, 3600);
+        policy.onFailure();
+        policy.onFailure();
+        assertEquals(RetryPolicy.State.CLOSED, policy.getState());
+        assertTrue(policy.allowRequest());
+        policy.onFailure();
+        assertEquals(RetryPolicy.State.OPEN, policy.getState());
+        assertFalse(policy.allowRequest());
+    }
+
+    @Test
+    public void waitsAtLeastUntilTheCircuitCloses() {
+        RetryPolicy policy = new RetryPolicy(5, 600, 1, 3600);
+        policy.onFailure();
+        assertTrue(policy.getRetryDelayMillis() > 3500 * 1000);
+    }
+
+    @Test
+    public void letsOneRequestThroughAfterTheOpenPeriod() {
+        RetryPolicy policy = new RetryPolicy(5, 600, 1, 0);
+        policy.onFailure();
+        assertTrue(policy.allowRequest());
+        assertEquals(RetryPolicy.State.HALF_OPEN, policy.getState());
+        // A failing test request opens the circuit again at once.
+        policy.onFailure();
+        assertEquals(RetryPolicy.State.OPEN, policy.getState());
+    }
+
+    @Test
+    public void successClosesTheCircuit() {
+        RetryPolicy policy = new RetryPolicy(5, 600, 1, 0);
+        policy.onFailure();
+        policy.allowRequest();
+        policy.onSuccess();
+        assertEquals(RetryPolicy.State.CLOSED, policy.getState());
+        assertEquals(0, policy.getConsecutiveFailures());
+    }
+
+    @Test
+    public void delaysGrowUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(5, 60, Integer.MAX_VALUE, 0);
+        long longest = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.onFailure();
+            long delay = policy.getRetryDelayMillis();
+            assertTrue(delay >= 1000 && delay <= 60 * 1000);
+            longest = Math.max(longest, delay);
+        }
+        assertTrue(longest > 30 * 1000);
+    }
+
+    @Test
+    public void firstDelayIsWithinTheBaseDelay() {
+        RetryPolicy policy = new RetryPolicy(5, 600, 10, 0);
+        policy.onFailure();
+        for (int i = 0; i < 100; i++)
+            assertTrue(policy.getRetryDelayMillis() <= 5 * 1000);
+    }
+}
@@ -0,0 +1,104 @@
+package dk.itu.kiosker.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Runs the event stream against a local server standing in for the settings events url.
+public class SettingsEventStreamTest {
+    private HttpServer server;
+    private final List<String> lastEventIds = new ArrayList<>();
+    private volatile int status = 200;
+    private volatile String body = "";
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                lastEventIds.add(exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void emitsTheDataOfSettingsEvents() {
+        body = ": keep alive\n\ndata: 1\n\nevent: settings\ndata: 2\n\nevent: other\ndata: 3\n\n";
+        assertEquals(Arrays.asList("1", "2"), read(stream()));
+    }
+
+    @Test
+    public void joinsDataLinesOfOneEvent() {
+        body = "data: first\ndata: second\n\n";
+        assertEquals(Arrays.asList("first\nsecond"), read(stream()));
+    }
+
+    @Test
+    public void ignoresAnEventWithoutBlankLineAtTheEnd() {
+        body = "data: 1\n\ndata: 2\n";
+        assertEquals(Arrays.asList("1"), read(stream()));
+    }
+
+    @Test
+    public void sendsTheLastEventIdWhenConnectingAgain() {
+        body = "id: 7\ndata: 1\n\n";
+        SettingsEventStream stream = stream();
+        read(stream);
+        read(stream);
+        assertNull(lastEventIds.get(0));
+        assertEquals("7", lastEventIds.get(1));
+        assertEquals("7", stream.getLastEventId());
+    }
+
+    @Test
+    public void failsOnAnErrorStatus() {
+        status = 503;
+        body = "down";
+        try {
+            read(stream());
+            fail("Read events from a failing server");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+    }
+
+    private SettingsEventStream stream() {
+        return new SettingsEventStream("http://127.0.0.1:" + server.getAddress().getPort() + "/events", 5000);
+    }
+
+    private static List<String> read(SettingsEventStream stream) {
+        Observable<List<String>> events = stream.getEvents().toList();
+        return events.toBlocking().single();
+    }
+}
@@ -0,0 +1,85 @@
+package dk.itu.kiosker.web;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HostMatcherTest {
+    private static HostMatcher compile(String rules) throws IOException {
+        return HostMatcher.compile(new StringReader(rules));
+    }
+
+    @Test
+    public void blocksTheHostAndItsSubdomains() throws IOException {
+        HostMatcher matcher = compile("ads.example.com");
+        assertTrue(matcher.isBlocked("http://ads.example.com/banner.png"));
+        assertTrue(matcher.isBlocked("https://eu.ads.example.com/"));
+        assertFalse(matcher.isBlocked("http://example.com/"));
+        assertFalse(matcher.isBlocked("http://badads.example.com/"));
+        assertFalse(matcher.isBlocked("http://ads.example.com.evil.net/"));
+    }
+
+    @Test
+    public void readsTheSupportedRuleSyntaxes() throws IOException {
+        HostMatcher matcher = compile("! comment\n# comment\n[Adblock Plus 2.0]\n||tracker.example.net^\n0.0.0.0 hosts.example.org\n"
+                + "127.0.0.1 local.example.org\n|https://scheme.example.com^\n||options.example.com^$third-party\n");
+        assertEquals(5, matcher.getRuleCount());
+        assertTrue(matcher.isBlocked("http://tracker.example.net/pixel.gif"));
+        assertTrue(matcher.isBlocked("http://hosts.example.org/"));
+        assertTrue(matcher.isBlocked("http://local.example.org/"));
+        assertTrue(matcher.isBlocked("http://scheme.example.com/"));
+        assertTrue(matcher.isBlocked("http://options.example.com/"));
+    }
+
+    @Test
+    public void skipsRulesItCannotMatch() throws IOException {
+        HostMatcher matcher = compile("*.wildcard.com\n/banner/ads/\n.leading.com\n\n");
+        assertEquals(0, matcher.getRuleCount());
+        assertFalse(matcher.isBlocked("http://x.wildcard.com/banner/ads/"));
+    }
+
+    @Test
+    public void matchesHostsIgnoringCasePortsAndQueries() throws IOException {
+        HostMatcher matcher = compile("||Ads.Example.com^");
+        assertTrue(matcher.isBlocked("https://ADS.example.COM:8443/x"));
+        assertTrue(matcher.isBlocked("https://ads.example.com?query"));
+        assertTrue(matcher.isBlocked("https://ads.example.com#fragment"));
+        assertFalse(matcher.isBlocked("not a url"));
+    }
+
+    @Test
+    public void blocksPathPrefixes() throws IOException {
+        HostMatcher matcher = compile("example.org/analytics/");
+        assertTrue(matcher.isBlocked("http://example.org/analytics/collect.js"));
+        assertTrue(matcher.isBlocked("http://www.example.org/analytics/"));
+        assertFalse(matcher.isBlocked("http://example.org/"));
+        assertFalse(matcher.isBlocked("http://example.org/news/analytics/"));
+        // A rule for the root path blocks the whole host.
+        assertTrue(compile("example.org/").isBlocked("http://example.org/news/"));
+    }
+
+    @Test
+    public void matchesPathsOnlyBeforeTheQuery() throws IOException {
+        HostMatcher matcher = compile("example.org/analytics/\n@@||example.net/public/\n||example.net^");
+        assertFalse(matcher.isBlocked("http://example.org?next=/analytics/"));
+        assertFalse(matcher.isBlocked("http://example.org:8080#/analytics/"));
+        assertTrue(matcher.isBlocked("http://example.org:8080/analytics/?x=1"));
+        assertTrue(matcher.isBlocked("http://example.net?x=/public/"));
+    }
+
+    @Test
+    public void allowRulesWinOverBlockRules() throws IOException {
+        HostMatcher matcher = compile("||example.net^\n@@||cdn.example.net^\n@@||example.net/public/\n||blocked.cdn.example.net^");
+        assertTrue(matcher.isBlocked("http://example.net/"));
+        assertTrue(matcher.isBlocked("http://www.example.net/"));
+        assertFalse(matcher.isBlocked("http://cdn.example.net/lib.js"));
+        // Allowing a domain also allows what is blocked under it.
+        assertFalse(matcher.isBlocked("http://blocked.cdn.example.net/lib.js"));
+        assertFalse(matcher.isBlocked("http://example.net/public/logo.png"));
+    }
+}
@@ -0,0 +1,45 @@
+package dk.itu.kiosker.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PaneGridLayoutTest {
+    @Test
+    public void splitsTheSizeByTheWeights() {
+        int[] edges = new int[3];
+        PaneGridLayout.computeEdges(new float[]{2, 1}, edges, 300);
+        assertArrayEquals(new int[]{0, 200, 300}, edges);
+    }
+
+    @Test
+    public void roundsTheEdgesNotTheCells() {
+        int[] edges = new int[4];
+        PaneGridLayout.computeEdges(new float[]{1, 1, 1}, edges, 100);
+        // Cells of 33, 34 and 33 pixels, rounding each cell would leave a pixel uncovered.
+        assertArrayEquals(new int[]{0, 33, 67, 100}, edges);
+    }
+
+    @Test
+    public void endsAtTheWholeSize() {
+        float[] weights = {0.1f, 0.7f, 0.3f, 1.9f, 0.05f};
+        int[] edges = new int[weights.length + 1];
+        for (int size = 0; size < 2000; size += 7) {
+            PaneGridLayout.computeEdges(weights, edges, size);
+            assertEquals(0, edges[0]);
+            assertEquals(size, edges[weights.length]);
+            for (int i = 0; i < weights.length; i++)
+                assertTrue(edges[i] <= edges[i + 1]);
+        }
+    }
+
+    @Test
+    public void recomputesTheEdgesForANewSize() {
+        int[] edges = new int[3];
+        PaneGridLayout.computeEdges(new float[]{1, 3}, edges, 400);
+        PaneGridLayout.computeEdges(new float[]{1, 3}, edges, 0);
+        assertArrayEquals(new int[]{0, 0, 0}, edges);
+    }
+}
@@ -0,0 +1,152 @@
+package dk.itu.kiosker.web;
+
+import android.view.MotionEvent;
+import android.view.View;
+import android.webkit.WebView;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowWebView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.itu.kiosker.BuildConfig;
+import dk.itu.kiosker.activities.KioskerActivity;
+import dk.itu.kiosker.models.KioskSettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 19, shadows = WebViewPoolTest.ShadowPooledWebView.class)
+public class WebViewPoolTest {
+    private KioskerActivity activity;
+    private WebViewPool pool;
+    private KioskSettings settings;
+
+    @Before
+    public void setUp() throws Exception {
+        activity = Robolectric.buildActivity(KioskerActivity.class).create().get();
+        pool = new WebViewPool(activity);
+        settings = KioskSettings.parse("{\"addSensorBridge\": true}");
+    }
+
+    @Test
+    public void reusesTheWebViewOfTheSameSlot() {
+        KioskerWebView webView = pool.acquire(0, settings);
+        pool.release(0, webView);
+        assertNotSame(webView, pool.acquire(1, settings));
+        assertSame(webView, pool.acquire(0, settings));
+    }
+
+    @Test
+    public void releasedWebViewKeepsNothingOfItsPage() {
+        FrameLayout pane = new FrameLayout(activity);
+        KioskerWebView webView = pool.acquire(0, settings);
+        KioskerWebViewClient client = webView.client;
+        pane.addView(webView);
+        webView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                return false;
+            }
+        });
+        webView.loadUrl("http://example.com/first");
+        client.onPageFinished(webView, "http://example.com/first");
+        ShadowPooledWebView shadow = shadowOf(webView);
+        assertNotNull(shadow.getJavascriptInterface(KioskerWebViewClient.SENSOR_BRIDGE_NAME));
+
+        pool.release(0, webView);
+        assertNull(webView.getParent());
+        assertNull(shadow.getOnTouchListener());
+        assertNull(shadow.getJavascriptInterface(KioskerWebViewClient.SENSOR_BRIDGE_NAME));
+        assertEquals("about:blank", shadow.getLastLoadedUrl());
+        assertNull(webView.client);
+        assertNotSame(client, shadow.getWebViewClient());
+        assertTrue(webView.isPaused());
+        assertFalse(shadow.wasDestroyCalled());
+    }
+
+    @Test
+    public void reusedWebViewGetsANewClient() {
+        KioskerWebView webView = pool.acquire(0, settings);
+        KioskerWebViewClient client = webView.client;
+        client.onPageFinished(webView, "http://example.com/first");
+        pool.release(0, webView);
+
+        KioskerWebView reused = pool.acquire(0, settings);
+        assertSame(webView, reused);
+        assertNotSame(client, reused.client);
+        assertSame(reused.client, shadowOf(reused).getWebViewClient());
+        assertFalse(reused.isPaused());
+        // The new client sets the page up again, as it did for the first page.
+        reused.client.onPageFinished(reused, "http://example.com/second");
+        assertNotNull(shadowOf(reused).getJavascriptInterface(KioskerWebViewClient.SENSOR_BRIDGE_NAME));
+    }
+
+    @Test
+    public void destroysWebViewsItHasNoRoomFor() {
+        List<KioskerWebView> webViews = new ArrayList<>();
+        for (int slot = 0; slot <= WebViewPool.MAX_POOLED_WEB_VIEWS; slot++)
+            webViews.add(pool.acquire(slot, settings));
+        for (int slot = 0; slot <= WebViewPool.MAX_POOLED_WEB_VIEWS; slot++)
+            pool.release(slot, webViews.get(slot));
+        assertEquals(WebViewPool.MAX_POOLED_WEB_VIEWS, pool.size());
+        assertTrue(shadowOf(webViews.get(WebViewPool.MAX_POOLED_WEB_VIEWS)).wasDestroyCalled());
+
+        KioskerWebView second = pool.acquireNew(settings);
+        pool.release(0, second);
+        assertTrue(shadowOf(second).wasDestroyCalled());
+    }
+
+    @Test
+    public void trimDestroysThePooledWebViews() {
+        KioskerWebView webView = pool.acquire(0, settings);
+        pool.release(0, webView);
+        pool.trim();
+        assertEquals(0, pool.size());
+        assertTrue(shadowOf(webView).wasDestroyCalled());
+        assertNotSame(webView, pool.acquire(0, settings));
+    }
+
+    private static ShadowPooledWebView shadowOf(WebView webView) {
+        return (ShadowPooledWebView) ShadowExtractor.extract(webView);
+    }
+
+    // The web view shadow of Robolectric does not remove javascript interfaces.
+    @Implements(WebView.class)
+    public static class ShadowPooledWebView extends ShadowWebView {
+        private final Map<String, Object> javascriptInterfaces = new HashMap<>();
+
+        @Implementation
+        public void addJavascriptInterface(Object object, String name) {
+            javascriptInterfaces.put(name, object);
+        }
+
+        @Implementation
+        public void removeJavascriptInterface(String name) {
+            javascriptInterfaces.remove(name);
+        }
+
+        @Override
+        public Object getJavascriptInterface(String name) {
+            return javascriptInterfaces.get(name);
+        }
+    }
+}
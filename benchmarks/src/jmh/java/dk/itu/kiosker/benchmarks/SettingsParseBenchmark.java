@@ -0,0 +1,68 @@
+package dk.itu.kiosker.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import dk.itu.kiosker.models.KioskSettings;
+
+/**
+ * Compares parsing a settings document into {@link KioskSettings} with reading it into a plain map,
+ * which is how the settings were read before they were typed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SettingsParseBenchmark {
+    // The number of sites in the document, the screen savers are a quarter of that.
+    @Param({"10", "200"})
+    public int sites;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private String json;
+
+    @Setup
+    public void setup() {
+        StringBuilder document = new StringBuilder();
+        document.append("{\"layout\": 1, \"reloadPeriodMins\": 60, \"screenSavePeriodMins\": 10, \"screenSaveLengthMins\": 5,")
+                .append(" \"idlePeriodMins\": 30, \"resetToHomeMins\": 15, \"allowSwitching\": true, \"autoCycleSecondary\": true,")
+                .append(" \"brightness\": 80, \"dimmedBrightness\": 10, \"volume\": 50, \"mute\": false,")
+                .append(" \"standbyStartTime\": \"22.00\", \"standbyStopTime\": \"7.30\",")
+                .append(" \"passwordHash\": \"5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8\", \"passwordSalt\": \"salt\",")
+                .append(" \"home\": [{\"url\": \"http://example.com/\", \"title\": \"Home\"}],");
+        appendPages(document, "sites", sites);
+        document.append(',');
+        appendPages(document, "screensavers", Math.max(sites / 4, 1));
+        document.append('}');
+        json = document.toString();
+    }
+
+    private static void appendPages(StringBuilder document, String key, int count) {
+        document.append('"').append(key).append("\": [");
+        for (int i = 0; i < count; i++)
+            document.append(i == 0 ? "" : ", ").append("{\"url\": \"http://example.com/").append(key).append('/').append(i)
+                    .append("?lang=en\", \"title\": \"Page ").append(i).append("\"}");
+        document.append(']');
+    }
+
+    @Benchmark
+    public KioskSettings parseSettings() throws IOException {
+        return KioskSettings.parse(json);
+    }
+
+    @Benchmark
+    public LinkedHashMap readMap() throws IOException {
+        return mapper.readValue(json, LinkedHashMap.class);
+    }
+}